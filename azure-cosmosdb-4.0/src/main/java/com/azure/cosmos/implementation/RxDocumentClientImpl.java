@@ -1,6 +1,6 @@
 package com.azure.cosmos.implementation;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 
 import org.reactivestreams.Subscription;
@@ -10,15 +10,14 @@ import com.azure.cosmos.models.CosmosQueryRequestOptions;
 import com.azure.cosmos.models.FeedResponse;
 import com.azure.cosmos.models.PartitionKey;
 import com.azure.cosmos.models.SqlQuerySpec;
-import com.newrelic.agent.database.ParsedDatabaseStatement;
-import com.newrelic.api.agent.DatastoreParameters;
-import com.newrelic.api.agent.NewRelic;
+import com.newrelic.api.agent.Transaction;
 import com.newrelic.api.agent.weaver.Weave;
 import com.newrelic.api.agent.weaver.Weaver;
 import com.newrelic.instrumentation.azure.cosmos40.CompletionRunnable;
+import com.newrelic.instrumentation.azure.cosmos40.CosmosOperation;
 import com.newrelic.instrumentation.azure.cosmos40.CosmosUtils;
 import com.newrelic.instrumentation.azure.cosmos40.ErrorConsumer;
-import com.newrelic.instrumentation.azure.cosmos40.Utils;
+import com.newrelic.instrumentation.azure.cosmos40.QueryMetricsCapture;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -27,89 +26,117 @@ import reactor.core.publisher.Mono;
 public abstract class RxDocumentClientImpl {
 
 	public Mono<ResourceResponse<DocumentCollection>> createCollection(String databaseLink, DocumentCollection collection, RequestOptions options) {
-		HashMap<String, Object> attributes = new HashMap<String, Object>();
-		Utils.addAttribute(attributes, "DatabaseLink", databaseLink);
+		Mono<ResourceResponse<DocumentCollection>> result = Weaver.callOriginal();
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
+		}
+		
 		String collectionName = collection.getId();
 		
-		Mono<ResourceResponse<DocumentCollection>> result = Weaver.callOriginal();
-		DatastoreParameters params = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(collectionName).operation("createCollection").build();
-		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/createCollection", params, NewRelic.getAgent().getTransaction());
-		runnable.setAttributes(attributes);
+		CosmosOperation operation = CosmosUtils.getOperation(collectionName, "createCollection");
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/createCollection", operation, transaction);
+		runnable.setAttributes("DatabaseLink", databaseLink);
 		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
-		return result.doOnSubscribe(runnable).doOnTerminate(runnable).doOnCancel(runnable).doOnError(errorConsumer);
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
 	}
 	
 	public Mono<ResourceResponse<Database>> createDatabase(Database database, RequestOptions options) {
+		Mono<ResourceResponse<Database>> result = Weaver.callOriginal();
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
+		}
+		
 		String databaseName = database.getId();
 		
-		Mono<ResourceResponse<Database>> result = Weaver.callOriginal();
-		DatastoreParameters params = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(databaseName).operation("createDatabase").build();
-		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/createDatabase", params, NewRelic.getAgent().getTransaction());
+		CosmosOperation operation = CosmosUtils.getOperation(databaseName, "createDatabase");
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/createDatabase", operation, transaction);
 		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
-		return result.doOnSubscribe(runnable).doOnTerminate(runnable).doOnCancel(runnable).doOnError(errorConsumer);
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
 	}
 	
 	public Mono<ResourceResponse<DocumentCollection>> deleteCollection(String collectionLink, RequestOptions options) {
-		HashMap<String, Object> attributes = new HashMap<String, Object>();
-		Utils.addAttribute(attributes, "ConnectionLink", collectionLink);
+		Mono<ResourceResponse<DocumentCollection>> result = Weaver.callOriginal();
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
+		}
+		
 		String collectionName = CosmosUtils.getIDFromLink(collectionLink);
 		
-		Mono<ResourceResponse<DocumentCollection>> result = Weaver.callOriginal();
-		DatastoreParameters params = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(collectionName).operation("deleteCollection").build();
-		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/deleteCollection", params, NewRelic.getAgent().getTransaction());
-		runnable.setAttributes(attributes);
+		CosmosOperation operation = CosmosUtils.getOperation(collectionName, "deleteCollection");
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/deleteCollection", operation, transaction);
+		runnable.setAttributes("ConnectionLink", collectionLink);
 		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
-		return result.doOnSubscribe(runnable).doOnTerminate(runnable).doOnCancel(runnable).doOnError(errorConsumer);
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
 	}
 	
 	public Mono<ResourceResponse<Database>> deleteDatabase(String databaseLink, RequestOptions options) {
+		Mono<ResourceResponse<Database>> result = Weaver.callOriginal();
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
+		}
+		
 		String databaseName = CosmosUtils.getIDFromLink(databaseLink);
 		
-		Mono<ResourceResponse<Database>> result = Weaver.callOriginal();
-		DatastoreParameters params = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(databaseName).operation("deleteDatabase").build();
-		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/deleteDatabase", params, NewRelic.getAgent().getTransaction());
+		CosmosOperation operation = CosmosUtils.getOperation(databaseName, "deleteDatabase");
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/deleteDatabase", operation, transaction);
 		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
-		return result.doOnSubscribe(runnable).doOnTerminate(runnable).doOnCancel(runnable).doOnError(errorConsumer);
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
 	}
 	
 	public Mono<StoredProcedureResponse> executeStoredProcedure(String storedProcedureLink, RequestOptions options, List<Object> procedureParams) {
-		String storedProcedure = CosmosUtils.getIDFromLink(storedProcedureLink);
 		Mono<StoredProcedureResponse> result = Weaver.callOriginal();
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
+		}
 		
-		DatastoreParameters params = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(storedProcedure).operation("executeStoredProcedure").build();
-		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/executeStoredProcedure", params, NewRelic.getAgent().getTransaction());
+		String storedProcedure = CosmosUtils.getIDFromLink(storedProcedureLink);
+		
+		CosmosOperation operation = CosmosUtils.getOperation(storedProcedure, "executeStoredProcedure");
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/executeStoredProcedure", operation, transaction);
 		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
-		return result.doOnSubscribe(runnable).doOnTerminate(runnable).doOnCancel(runnable).doOnError(errorConsumer);
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
 	}
 	
 	@SuppressWarnings("unused")
 	private <T extends Resource> Flux<FeedResponse<T>> createQuery(String parentResourceLink, SqlQuerySpec sqlQuery, CosmosQueryRequestOptions options, Class<T> klass, ResourceType resourceTypeEnum) {
+		options = QueryMetricsCapture.prepare(sqlQuery.getQueryText(), options);
 		Flux<FeedResponse<T>> result = Weaver.callOriginal();
-		
-		ParsedDatabaseStatement statement = CosmosUtils.parseSQL(sqlQuery.getQueryText());
-		DatastoreParameters params = null;
-		if(statement != null) {
-			params = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(statement.getModel()).operation(statement.getOperation()).noInstance().noDatabaseName().slowQuery(sqlQuery.getQueryText(), Utils.getConverter()).build();
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
 		}
-
-		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("CosmosAsyncClient/query", params, NewRelic.getAgent().getTransaction());
+		
+		CosmosOperation operation = CosmosUtils.getQueryOperation(parentResourceLink, sqlQuery.getQueryText());
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("CosmosAsyncClient/query", operation, transaction);
+		runnable.setAttributes("ResourceLink", parentResourceLink, "ResourceType", resourceTypeEnum);
 		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
 
-		return result.doOnSubscribe(runnable).doOnCancel(runnable).doOnComplete(runnable).doOnError(errorConsumer);
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
 	}
 
 	public <T> Mono<FeedResponse<T>> readMany(List<Pair<String, PartitionKey>> itemKeyList, String collectionLink, CosmosQueryRequestOptions options, Class<T> klass) {
-		HashMap<String, Object> attributes = new HashMap<String, Object>();
-		Utils.addAttribute(attributes, "CollectionLink", collectionLink);
-		Utils.addAttribute(attributes, "ItemType", klass.getName());
+		Mono<FeedResponse<T>> result = Weaver.callOriginal();
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
+		}
+		
 		String collectionName = CosmosUtils.getIDFromLink(collectionLink);
 		
-		Mono<FeedResponse<T>> result = Weaver.callOriginal();
-		DatastoreParameters params = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(collectionName).operation("readMany").build();
-		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/readMany", params, NewRelic.getAgent().getTransaction());
-		runnable.setAttributes(attributes);
+		// from 4.19 the ids are CosmosItemIdentity, which erases to the same signature
+		List<?> itemKeys = itemKeyList != null ? itemKeyList : Collections.emptyList();
+		int distinctPartitionKeys = CosmosUtils.getDistinctPartitionKeys(itemKeys);
+		CosmosOperation operation = CosmosUtils.getOperation(collectionName, "readMany");
+		CosmosUtils.recordBatch(operation, itemKeys.size(), distinctPartitionKeys);
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/readMany", operation, transaction);
+		runnable.setAttributes("CollectionLink", collectionLink, "ItemType", klass.getName(), "RequestedCount", itemKeys.size(), "DistinctPartitionKeys", distinctPartitionKeys);
 		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
-		return result.doOnSubscribe(runnable).doOnTerminate(runnable).doOnCancel(runnable).doOnError(errorConsumer);
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
 	}
 	
 }
@@ -0,0 +1,72 @@
+package com.newrelic.instrumentation.azure.cosmos40;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import com.newrelic.agent.HarvestListener;
+import com.newrelic.agent.HarvestService;
+import com.newrelic.agent.service.ServiceFactory;
+import com.newrelic.agent.stats.StatsEngine;
+import com.newrelic.api.agent.NewRelic;
+
+public class CosmosHarvestListener implements HarvestListener {
+
+	private static final CosmosHarvestListener INSTANCE = new CosmosHarvestListener();
+	private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(10);
+	private static final AtomicBoolean registered = new AtomicBoolean(false);
+	private static final AtomicLong nextAttemptNanos = new AtomicLong(System.nanoTime());
+
+	private final List<HarvestReporter> reporters = new CopyOnWriteArrayList<HarvestReporter>();
+
+	private CosmosHarvestListener() {
+	}
+
+	public static void addReporter(HarvestReporter reporter) {
+		if(reporter != null) {
+			INSTANCE.reporters.add(reporter);
+			ensureRegistered();
+		}
+	}
+
+	/*
+	 * The harvest service does not exist before the agent has started, or without an agent.
+	 */
+	public static void ensureRegistered() {
+		if(registered.get()) {
+			return;
+		}
+		long now = System.nanoTime();
+		long next = nextAttemptNanos.get();
+		if(now - next < 0 || !nextAttemptNanos.compareAndSet(next, now + RETRY_NANOS)) {
+			return;
+		}
+		try {
+			HarvestService harvestService = ServiceFactory.getHarvestService();
+			if(harvestService != null && registered.compareAndSet(false, true)) {
+				harvestService.addHarvestListener(INSTANCE);
+			}
+		} catch (Exception | LinkageError e) {
+			NewRelic.getAgent().getLogger().log(Level.FINEST, e, "Harvest service not available yet, CosmosDB harvest data will be reported once it is");
+		}
+	}
+
+	@Override
+	public void beforeHarvest(String appName, StatsEngine statsEngine) {
+		for(HarvestReporter reporter : reporters) {
+			try {
+				reporter.report();
+			} catch (Exception e) {
+				NewRelic.getAgent().getLogger().log(Level.FINE, e, "Failed to report CosmosDB harvest data from {0}", reporter.getClass().getSimpleName());
+			}
+		}
+	}
+
+	@Override
+	public void afterHarvest(String appName) {
+	}
+
+}
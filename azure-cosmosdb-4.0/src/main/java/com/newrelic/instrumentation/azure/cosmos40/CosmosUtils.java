@@ -1,43 +1,360 @@
 package com.newrelic.instrumentation.azure.cosmos40;
 
-import com.newrelic.agent.database.DatabaseService;
-import com.newrelic.agent.database.DefaultDatabaseStatementParser;
-import com.newrelic.agent.database.ParsedDatabaseStatement;
-import com.newrelic.agent.service.ServiceFactory;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+import org.reactivestreams.Subscription;
+
+import com.azure.cosmos.CosmosDiagnostics;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.implementation.ResourceResponse;
+import com.azure.cosmos.implementation.StoredProcedureResponse;
+import com.azure.cosmos.implementation.apachecommons.lang.tuple.Pair;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.CosmosResponse;
+import com.azure.cosmos.models.FeedResponse;
+import com.newrelic.agent.bridge.AgentBridge;
+import com.newrelic.agent.bridge.NoOpTransaction;
+import com.newrelic.agent.bridge.Token;
+import com.newrelic.api.agent.NewRelic;
+import com.newrelic.api.agent.Transaction;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
 
 public class CosmosUtils {
 
 	public static final String COSMOSDB = "CosmosDB";
-	private static DefaultDatabaseStatementParser parser = null;
-	private static CosmosDBVendor vendor = new CosmosDBVendor();
-	public static boolean initialized = false;
+	public static final String REQUEST_CHARGE_METRIC = "Custom/CosmosDB/RequestCharge/all";
+	public static final String REQUEST_DURATION_HEADER = "x-ms-request-duration-ms";
+	public static final String TOKEN_KEY = "newrelic-token";
+	public static final boolean BACKGROUND_ENABLED = CosmosConfig.getBoolean(CosmosConfig.BACKGROUND_ENABLED, true);
+	public static final boolean CONTEXT_TOKEN_ENABLED = CosmosConfig.getBoolean(CosmosConfig.CONTEXT_TOKEN_ENABLED, true);
+	private static volatile Method partitionKeyAccessor = null;
+	private static final BoundedCache<String, String> statementCache;
+	private static final BoundedCache<String, String> fingerprintCache;
+	private static final BoundedCache<String, String> linkCache = new BoundedCache<String, String>("LinkIds", CosmosConfig.getInt(CosmosConfig.LINK_CACHE_MAX_SIZE, 1000));
+	private static final BoundedCache<String, ConcurrentMap<String, CosmosOperation>> operationCache = new BoundedCache<String, ConcurrentMap<String, CosmosOperation>>("Operations", CosmosConfig.getInt(CosmosConfig.OPERATION_CACHE_MAX_SIZE, 1000));
+	
+	static {
+		CosmosHarvestListener.addReporter(linkCache);
+		CosmosHarvestListener.addReporter(operationCache);
+		if(CosmosConfig.getBoolean(CosmosConfig.STATEMENT_CACHE_ENABLED, true)) {
+			statementCache = new BoundedCache<String, String>("ParsedStatements", CosmosConfig.getInt(CosmosConfig.STATEMENT_CACHE_MAX_SIZE, 500));
+			CosmosHarvestListener.addReporter(statementCache);
+		} else {
+			statementCache = null;
+		}
+		if(CosmosConfig.getBoolean(CosmosConfig.QUERY_STATS_ENABLED, true)) {
+			fingerprintCache = new BoundedCache<String, String>("Fingerprints", CosmosConfig.getInt(CosmosConfig.FINGERPRINT_CACHE_MAX_SIZE, 1000));
+			CosmosHarvestListener.addReporter(fingerprintCache);
+		} else {
+			fingerprintCache = null;
+		}
+	}
+	
+	public static Transaction getTransaction() {
+		Transaction transaction = AgentBridge.getAgent().getTransaction(false);
+		if(transaction == null || transaction instanceof NoOpTransaction) {
+			return null;
+		}
+		return transaction;
+	}
+	
+	/*
+	 * False when an operation outside of a transaction cannot be recorded at all.
+	 */
+	public static boolean isInstrumented(Transaction transaction) {
+		return transaction != null || BACKGROUND_ENABLED || CONTEXT_TOKEN_ENABLED;
+	}
+	
+	/*
+	 * Resolved at subscription: the Context token, else the subscribing thread, else the assembly token.
+	 */
+	public static Transaction getTransaction(Context context, Token assembled) {
+		Transaction transaction = getTransaction(CONTEXT_TOKEN_ENABLED && context != null ? context.getOrDefault(TOKEN_KEY, null) : null);
+		if(transaction != null) {
+			return transaction;
+		}
+		transaction = getTransaction();
+		if(transaction != null) {
+			return transaction;
+		}
+		return getTransaction(assembled);
+	}
+	
+	private static Transaction getTransaction(Object token) {
+		if(token instanceof Token && ((Token)token).isActive()) {
+			Transaction transaction = ((Token)token).getTransaction();
+			if(transaction != null && !(transaction instanceof NoOpTransaction)) {
+				return transaction;
+			}
+		}
+		return null;
+	}
+	
+	/*
+	 * A token that keeps the transaction open for a subscription that may come later, null without a transaction.
+	 */
+	public static Token getToken(Transaction transaction) {
+		if(transaction == null) {
+			return null;
+		}
+		com.newrelic.api.agent.Token token = transaction.getToken();
+		if(token instanceof Token) {
+			return (Token)token;
+		}
+		if(token != null) {
+			token.expire();
+		}
+		return null;
+	}
+	
+	public static <T> Mono<T> instrument(Mono<T> result, CompletionRunnable<Subscription> runnable, ErrorConsumer errorConsumer) {
+		return InstrumentedMono.create(result, runnable, errorConsumer);
+	}
+	
+	public static <T> Flux<T> instrument(Flux<T> result, CompletionRunnable<Subscription> runnable, ErrorConsumer errorConsumer) {
+		return InstrumentedFlux.create(result, runnable, errorConsumer);
+	}
+	
+	/*
+	 * The operation of a query depends only on its text, so the classification is cached per distinct text.
+	 */
+	public static String getQueryOperation(String sql) {
+		if(statementCache == null || sql == null) {
+			return CosmosSqlParser.getOperation(sql);
+		}
+		String operation = statementCache.get(sql);
+		if(operation == null) {
+			operation = CosmosSqlParser.getOperation(sql);
+			statementCache.put(sql, operation);
+		}
+		return operation;
+	}
+	
+	/*
+	 * Queries are attributed to the container named by the resource link, since the FROM clause only holds an alias.
+	 */
+	public static CosmosOperation getQueryOperation(String resourceLink, String sql) {
+		return getOperation(getIDFromLink(resourceLink), getQueryOperation(sql)).forQuery(sql, CosmosQueryConverter.INSTANCE, getFingerprint(sql));
+	}
+	
+	/*
+	 * Null when query statistics are disabled.
+	 */
+	public static String getFingerprint(String sql) {
+		if(fingerprintCache == null || sql == null) {
+			return null;
+		}
+		String fingerprint = fingerprintCache.get(sql);
+		if(fingerprint == null) {
+			fingerprint = QueryFingerprint.normalize(sql);
+			fingerprintCache.put(sql, fingerprint);
+		}
+		return fingerprint;
+	}
+	
+	/*
+	 * Operation names are a fixed set, so only the number of collections is bounded.
+	 */
+	public static CosmosOperation getOperation(String collection, String operation) {
+		if(collection == null) {
+			return new CosmosOperation(collection, operation);
+		}
+		ConcurrentMap<String, CosmosOperation> operations = operationCache.get(collection);
+		if(operations == null) {
+			operations = new ConcurrentHashMap<String, CosmosOperation>(8);
+			operationCache.put(collection, operations);
+		}
+		CosmosOperation result = operations.get(operation);
+		if(result == null) {
+			result = new CosmosOperation(collection, operation);
+			operations.put(operation, result);
+		}
+		return result;
+	}
+	
+	public static void recordBatch(CosmosOperation operation, int requested, int distinctPartitionKeys) {
+		HistogramRegistry.INSTANCE.record(operation.getBatchSizeMetric(), requested);
+		HistogramRegistry.INSTANCE.record(operation.getBatchPartitionsMetric(), distinctPartitionKeys);
+	}
 	
-	public static void init() {
-		DatabaseService dbService = ServiceFactory.getDatabaseService();
-		if(dbService != null) {
-			parser = (DefaultDatabaseStatementParser)dbService.getDatabaseStatementParser();
-			initialized = true;
+	public static int getDistinctPartitionKeys(List<?> itemKeys) {
+		HashSet<Object> partitionKeys = new HashSet<Object>();
+		for(Object itemKey : itemKeys) {
+			if(itemKey instanceof Pair) {
+				partitionKeys.add(((Pair<?, ?>)itemKey).getRight());
+			} else if(itemKey != null) {
+				partitionKeys.add(getPartitionKey(itemKey));
+			}
+		}
+		return partitionKeys.size();
+	}
+	
+	private static Object getPartitionKey(Object itemIdentity) {
+		Method accessor = partitionKeyAccessor;
+		try {
+			if(accessor == null || accessor.getDeclaringClass() != itemIdentity.getClass()) {
+				accessor = itemIdentity.getClass().getMethod("getPartitionKey");
+				partitionKeyAccessor = accessor;
+			}
+			return accessor.invoke(itemIdentity);
+		} catch (Exception e) {
+			NewRelic.getAgent().getLogger().log(Level.FINEST, e, "Failed to read the partition key of {0}", itemIdentity.getClass().getName());
+			return null;
+		}
+	}
+	
+	/*
+	 * Request units consumed by the call, or 0 when the response does not carry a charge.
+	 */
+	public static double getRequestCharge(Object response) {
+		if(response instanceof CosmosItemResponse) {
+			return ((CosmosItemResponse<?>)response).getRequestCharge();
+		}
+		if(response instanceof FeedResponse) {
+			return ((FeedResponse<?>)response).getRequestCharge();
 		}
+		if(response instanceof CosmosResponse) {
+			return ((CosmosResponse<?>)response).getRequestCharge();
+		}
+		if(response instanceof ResourceResponse) {
+			return ((ResourceResponse<?>)response).getRequestCharge();
+		}
+		if(response instanceof StoredProcedureResponse) {
+			return ((StoredProcedureResponse)response).getRequestCharge();
+		}
+		if(response instanceof CosmosException) {
+			return ((CosmosException)response).getRequestCharge();
+		}
+		return 0;
 	}
 	
-	public static ParsedDatabaseStatement parseSQL(String sql) {
-		if(!initialized) {
-			init();
+	public static Map<String, String> getResponseHeaders(Object response) {
+		if(response instanceof CosmosItemResponse) {
+			return ((CosmosItemResponse<?>)response).getResponseHeaders();
+		}
+		if(response instanceof FeedResponse) {
+			return ((FeedResponse<?>)response).getResponseHeaders();
+		}
+		if(response instanceof CosmosResponse) {
+			return ((CosmosResponse<?>)response).getResponseHeaders();
 		}
-		
-		if(initialized) {
-			ParsedDatabaseStatement statement = parser.getParsedDatabaseStatement(vendor, sql, null);
-			return statement;
+		if(response instanceof ResourceResponse) {
+			return ((ResourceResponse<?>)response).getResponseHeaders();
+		}
+		if(response instanceof StoredProcedureResponse) {
+			return ((StoredProcedureResponse)response).getResponseHeaders();
+		}
+		if(response instanceof CosmosException) {
+			return ((CosmosException)response).getResponseHeaders();
 		}
-		
 		return null;
 	}
 	
+	/*
+	 * Time the backend reports it spent on the request, or -1 when the response does not carry it.
+	 */
+	public static double getServerDuration(Object response) {
+		Map<String, String> headers = getResponseHeaders(response);
+		String value = headers != null ? headers.get(REQUEST_DURATION_HEADER) : null;
+		if(value != null) {
+			try {
+				return Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+	
+	public static CosmosDiagnostics getDiagnostics(Object response) {
+		if(response instanceof CosmosItemResponse) {
+			return ((CosmosItemResponse<?>)response).getDiagnostics();
+		}
+		if(response instanceof FeedResponse) {
+			return ((FeedResponse<?>)response).getCosmosDiagnostics();
+		}
+		if(response instanceof CosmosResponse) {
+			return ((CosmosResponse<?>)response).getDiagnostics();
+		}
+		if(response instanceof ResourceResponse) {
+			return ((ResourceResponse<?>)response).getDiagnostics();
+		}
+		if(response instanceof CosmosException) {
+			return ((CosmosException)response).getDiagnostics();
+		}
+		return null;
+	}
+	
+	/*
+	 * The summary metrics keep the exact charge, the histogram records it rounded up to whole request units.
+	 */
+	public static void recordRequestCharge(CosmosOperation operation, double charge) {
+		NewRelic.recordMetric(REQUEST_CHARGE_METRIC, (float)charge);
+		if(operation != null) {
+			NewRelic.recordMetric(operation.getRequestChargeMetric(), (float)charge);
+			HistogramRegistry.INSTANCE.record(operation.getRequestChargeMetric(), (long)Math.ceil(charge));
+		}
+	}
+	
 	public static String getIDFromLink(String link) {
-		String[] parts = link.split("/");
-		
-		int length = parts.length;
-		
-		return parts[length-1];
+		if(link == null) {
+			return "";
+		}
+		String id = linkCache.get(link);
+		if(id == null) {
+			id = getLastSegment(link);
+			linkCache.put(link, id);
+		}
+		return id;
+	}
+	
+	/*
+	 * The segment after "colls/", or "" when the link has none.
+	 */
+	public static String getCollectionFromLink(String link) {
+		if(link == null) {
+			return "";
+		}
+		// links alternate between resource type and id segments, so a database named colls is not mistaken for the type
+		int start = link.startsWith("/") ? 1 : 0;
+		while(start < link.length()) {
+			int typeEnd = link.indexOf('/', start);
+			if(typeEnd < 0) {
+				return "";
+			}
+			int idEnd = link.indexOf('/', typeEnd + 1);
+			if(idEnd < 0) {
+				idEnd = link.length();
+			}
+			if(typeEnd - start == 5 && link.startsWith("colls", start)) {
+				return link.substring(typeEnd + 1, idEnd);
+			}
+			start = idEnd + 1;
+		}
+		return "";
+	}
+	
+	/*
+	 * link.split("/") last element, without the allocations.
+	 */
+	public static String getLastSegment(String link) {
+		int end = link.length();
+		while(end > 0 && link.charAt(end-1) == '/') {
+			end--;
+		}
+		if(end == 0) {
+			return "";
+		}
+		int start = link.lastIndexOf('/', end-1) + 1;
+		return link.substring(start, end);
 	}
 }
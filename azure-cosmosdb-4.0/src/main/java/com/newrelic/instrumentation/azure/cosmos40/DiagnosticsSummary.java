@@ -0,0 +1,177 @@
+package com.newrelic.instrumentation.azure.cosmos40;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.azure.cosmos.CosmosDiagnostics;
+import com.newrelic.api.agent.NewRelic;
+import com.newrelic.api.agent.Segment;
+
+/**
+ * Summarizes the CosmosDiagnostics of slow operations into a few segment attributes.
+ */
+public class DiagnosticsSummary {
+
+	public static final boolean ENABLED = CosmosConfig.getBoolean(CosmosConfig.DIAGNOSTICS_ENABLED, true);
+	private static final long THRESHOLD_MILLIS = CosmosConfig.getInt(CosmosConfig.DIAGNOSTICS_THRESHOLD_MS, 1000);
+	private static final RateLimiter limiter = new RateLimiter(CosmosConfig.getInt(CosmosConfig.DIAGNOSTICS_MAX_PER_MINUTE, 10));
+
+	private static final String CAPTURED_METRIC = "Custom/CosmosDB/Diagnostics/Captured";
+	private static final String RATE_LIMITED_METRIC = "Custom/CosmosDB/Diagnostics/RateLimited";
+
+	private static final Method CONTACTED_REGIONS = ENABLED ? getAccessor("getContactedRegionNames") : null;
+	private static final Method DURATION = ENABLED ? getAccessor("getDuration") : null;
+
+	private static final String REGIONS_KEY = "\"regionsContacted\":[";
+	private static final String RETRY_KEY = "\"retryCount\":";
+	private static final String EVENT_KEY = "\"eventName\":\"";
+	private static final String DURATION_KEY = "\"durationInMicroSec\":";
+	private static final String[] STAGES = {"queued", "channelAcquisitionStarted", "pipelined", "transitTime", "received"};
+	private static final String[] STAGE_ATTRIBUTES = {"Diagnostics.QueuedMillis", "Diagnostics.ConnectionAcquisitionMillis", "Diagnostics.PipelinedMillis", "Diagnostics.TransitMillis", "Diagnostics.ReceivedMillis"};
+
+	public static void capture(Segment segment, CosmosDiagnostics diagnostics, long millis) {
+		if(diagnostics == null || millis < THRESHOLD_MILLIS) {
+			return;
+		}
+		if(!limiter.tryAcquire()) {
+			NewRelic.incrementCounter(RATE_LIMITED_METRIC);
+			return;
+		}
+		NewRelic.incrementCounter(CAPTURED_METRIC);
+		String text = diagnostics.toString();
+		if(text == null) {
+			return;
+		}
+		Map<String, Object> attributes = parse(text, CONTACTED_REGIONS == null);
+		Object regions = invoke(CONTACTED_REGIONS, diagnostics);
+		if(regions instanceof Collection) {
+			addRegions(attributes, (Collection<?>)regions);
+		}
+		Object duration = invoke(DURATION, diagnostics);
+		if(duration instanceof Duration) {
+			attributes.put("Diagnostics.DurationMillis", ((Duration)duration).toNanos() / 1000000.0);
+		}
+		segment.addCustomAttributes(attributes);
+	}
+
+	/*
+	 * The attributes found in the JSON rendering of the diagnostics.
+	 */
+	static Map<String, Object> parse(String text, boolean regions) {
+		Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+		if(regions) {
+			String contacted = getArray(text, REGIONS_KEY);
+			if(contacted != null) {
+				attributes.put("Diagnostics.RegionsContacted", contacted);
+				attributes.put("Diagnostics.RegionCount", contacted.isEmpty() ? 0 : contacted.split(",").length);
+			}
+		}
+		attributes.put("Diagnostics.RetryCount", (long)getMax(text, RETRY_KEY));
+		double[] stages = new double[STAGES.length];
+		int index = text.indexOf(EVENT_KEY);
+		while(index >= 0) {
+			int nameStart = index + EVENT_KEY.length();
+			int nameEnd = text.indexOf('"', nameStart);
+			if(nameEnd < 0) {
+				break;
+			}
+			int eventEnd = text.indexOf('}', nameEnd);
+			int durationIndex = text.indexOf(DURATION_KEY, nameEnd);
+			if(durationIndex >= 0 && (eventEnd < 0 || durationIndex < eventEnd)) {
+				for(int i = 0; i < STAGES.length; i++) {
+					if(text.regionMatches(nameStart, STAGES[i], 0, nameEnd - nameStart) && STAGES[i].length() == nameEnd - nameStart) {
+						stages[i] += getNumber(text, durationIndex + DURATION_KEY.length());
+						break;
+					}
+				}
+			}
+			index = text.indexOf(EVENT_KEY, nameEnd);
+		}
+		for(int i = 0; i < STAGES.length; i++) {
+			attributes.put(STAGE_ATTRIBUTES[i], stages[i] / 1000);
+		}
+		return attributes;
+	}
+
+	static void addRegions(Map<String, Object> attributes, Collection<?> regions) {
+		StringBuilder contacted = new StringBuilder();
+		for(Object region : regions) {
+			if(contacted.length() > 0) {
+				contacted.append(',');
+			}
+			contacted.append(region);
+		}
+		attributes.put("Diagnostics.RegionsContacted", contacted.toString());
+		attributes.put("Diagnostics.RegionCount", regions.size());
+	}
+
+	/*
+	 * Looked up once, null in the releases without the accessor.
+	 */
+	private static Method getAccessor(String name) {
+		try {
+			return CosmosDiagnostics.class.getMethod(name);
+		} catch (Exception e) {
+			NewRelic.getAgent().getLogger().log(Level.FINEST, "CosmosDiagnostics has no {0}(), read from its JSON instead", name);
+			return null;
+		}
+	}
+
+	private static Object invoke(Method accessor, CosmosDiagnostics diagnostics) {
+		if(accessor == null) {
+			return null;
+		}
+		try {
+			return accessor.invoke(diagnostics);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Comma separated values of the first JSON array following the key, without quotes.
+	 */
+	private static String getArray(String text, String key) {
+		int start = text.indexOf(key);
+		if(start < 0) {
+			return null;
+		}
+		start += key.length();
+		int end = text.indexOf(']', start);
+		if(end < 0) {
+			return null;
+		}
+		return text.substring(start, end).replace("\"", "").trim();
+	}
+
+	private static double getMax(String text, String key) {
+		double max = 0;
+		int index = text.indexOf(key);
+		while(index >= 0) {
+			max = Math.max(max, getNumber(text, index + key.length()));
+			index = text.indexOf(key, index + key.length());
+		}
+		return max;
+	}
+
+	private static double getNumber(String text, int start) {
+		int end = start;
+		int length = text.length();
+		while(end < length && (Character.isDigit(text.charAt(end)) || text.charAt(end) == '.' || text.charAt(end) == '-' || text.charAt(end) == 'E' || text.charAt(end) == 'e')) {
+			end++;
+		}
+		if(end == start) {
+			return 0;
+		}
+		try {
+			return Double.parseDouble(text.substring(start, end));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
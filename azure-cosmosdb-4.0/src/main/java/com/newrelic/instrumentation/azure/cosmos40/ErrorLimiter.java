@@ -0,0 +1,103 @@
+package com.newrelic.instrumentation.azure.cosmos40;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.azure.cosmos.CosmosException;
+import com.newrelic.api.agent.NewRelic;
+
+/**
+ * Rate limits noticed errors per exception type, status code and container.
+ */
+public class ErrorLimiter implements HarvestReporter {
+
+	public static final String EVENT_TYPE = "CosmosSuppressedErrors";
+	private static final String SUPPRESSED_METRIC = "Custom/CosmosDB/Errors/Suppressed";
+	private static final String OVERFLOW_KEY = "other";
+
+	public static final ErrorLimiter INSTANCE = new ErrorLimiter(CosmosConfig.getInt(CosmosConfig.ERRORS_NOTICE_PER_MINUTE, 10), CosmosConfig.getInt(CosmosConfig.ERRORS_MAX_KEYS, 200));
+
+	private final ConcurrentHashMap<String, Limit> limits = new ConcurrentHashMap<String, Limit>();
+	private final int permitsPerMinute;
+	private final int maxKeys;
+
+	private ErrorLimiter(int permitsPerMinute, int maxKeys) {
+		this.permitsPerMinute = permitsPerMinute;
+		this.maxKeys = maxKeys;
+		CosmosHarvestListener.addReporter(this);
+	}
+
+	public boolean tryNotice(Throwable t, CosmosOperation operation) {
+		String collection = operation != null ? operation.getCollection() : null;
+		int status = t instanceof CosmosException ? ((CosmosException)t).getStatusCode() : 0;
+		String key = t.getClass().getName() + '/' + status + '/' + (collection != null && !collection.isEmpty() ? collection : "unknown");
+		Limit limit = getLimit(key, t.getClass().getName(), status, collection);
+		if(limit.limiter.tryAcquire()) {
+			return true;
+		}
+		limit.suppressed.increment();
+		return false;
+	}
+
+	private Limit getLimit(String key, String type, int status, String collection) {
+		Limit limit = limits.get(key);
+		if(limit != null) {
+			return limit;
+		}
+		if(limits.size() >= maxKeys) {
+			key = OVERFLOW_KEY;
+			type = OVERFLOW_KEY;
+			status = 0;
+			collection = null;
+			limit = limits.get(key);
+			if(limit != null) {
+				return limit;
+			}
+		}
+		Limit created = new Limit(type, status, collection, permitsPerMinute);
+		limit = limits.putIfAbsent(key, created);
+		return limit != null ? limit : created;
+	}
+
+	@Override
+	public void report() {
+		long total = 0;
+		for(Map.Entry<String, Limit> entry : limits.entrySet()) {
+			Limit limit = entry.getValue();
+			long suppressed = limit.suppressed.sumThenReset();
+			if(suppressed > 0) {
+				total += suppressed;
+				Map<String, Object> event = new HashMap<String, Object>();
+				event.put("errorType", limit.type);
+				event.put("statusCode", limit.status);
+				event.put("container", limit.collection != null ? limit.collection : "unknown");
+				event.put("suppressed", suppressed);
+				NewRelic.getAgent().getInsights().recordCustomEvent(EVENT_TYPE, event);
+			} else if(limit.limiter.isIdle()) {
+				limits.remove(entry.getKey(), limit);
+			}
+		}
+		if(total > 0) {
+			NewRelic.incrementCounter(SUPPRESSED_METRIC, (int)Math.min(total, Integer.MAX_VALUE));
+		}
+	}
+
+	private static class Limit {
+
+		private final String type;
+		private final int status;
+		private final String collection;
+		private final RateLimiter limiter;
+		private final LongAdder suppressed = new LongAdder();
+
+		private Limit(String type, int status, String collection, int permitsPerMinute) {
+			this.type = type;
+			this.status = status;
+			this.collection = collection;
+			limiter = new RateLimiter(permitsPerMinute);
+		}
+	}
+
+}
@@ -0,0 +1,10 @@
+package com.newrelic.instrumentation.azure.cosmos40;
+
+/**
+ * Implemented by anything that aggregates data between harvests and flushes it as metrics or events when the agent harvests.
+ */
+public interface HarvestReporter {
+
+	public void report();
+
+}
@@ -0,0 +1,110 @@
+package com.newrelic.instrumentation.azure.cosmos40;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free log-linear histogram, four buckets per power of two.
+ */
+public class Histogram {
+
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = 4 + (MAX_EXPONENT - 1) * 4;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong(0);
+
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		long current = max.get();
+		while(value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/*
+	 * Adds the values of another histogram, which should no longer be recorded to.
+	 */
+	public void add(Histogram other) {
+		for(int i = 0; i < BUCKETS; i++) {
+			long value = other.buckets.get(i);
+			if(value > 0) {
+				buckets.addAndGet(i, value);
+			}
+		}
+		count.add(other.getCount());
+		sum.add(other.getSum());
+		long otherMax = other.getMax();
+		long current = max.get();
+		while(otherMax > current && !max.compareAndSet(current, otherMax)) {
+			current = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/*
+	 * Upper bound of the bucket holding the requested percentile, never more than the largest recorded value.
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if(total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= rank) {
+				// the last bucket is open ended
+				return i == BUCKETS - 1 ? getMax() : Math.min(upperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	static int index(long value) {
+		if(value < 4) {
+			return (int)value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if(exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int)((value >>> (exponent - 2)) & 3);
+		return 4 + (exponent - 2) * 4 + sub;
+	}
+
+	static long upperBound(int index) {
+		if(index < 4) {
+			return index;
+		}
+		int exponent = (index - 4) / 4 + 2;
+		int sub = (index - 4) % 4;
+		return ((5L + sub) << (exponent - 2)) - 1;
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.newrelic.instrumentation.azure.cosmos40;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void empty() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(0, histogram.getMax());
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		Histogram histogram = new Histogram();
+		for(int i = 0; i < 4; i++) {
+			histogram.record(i);
+		}
+		assertEquals(4, histogram.getCount());
+		assertEquals(6, histogram.getSum());
+		assertEquals(1, histogram.getPercentile(50));
+		assertEquals(3, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void percentilesWithinBucketError() {
+		Histogram histogram = new Histogram();
+		for(int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		assertEquals(1000, histogram.getMax());
+		assertWithin(500, histogram.getPercentile(50));
+		assertWithin(950, histogram.getPercentile(95));
+		assertWithin(990, histogram.getPercentile(99));
+		assertEquals(1000, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void negativeAndHugeValues() {
+		Histogram histogram = new Histogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(2, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void bucketBounds() {
+		for(long value : new long[] {0, 1, 3, 4, 5, 7, 8, 100, 1000, 123456789L, 1L << 40}) {
+			int index = Histogram.index(value);
+			assertTrue(value + " above its bucket", value <= Histogram.upperBound(index));
+			assertTrue(value + " below its bucket", index == 0 || value > Histogram.upperBound(index - 1));
+		}
+	}
+
+	@Test
+	public void merge() {
+		StripedHistogram striped = new StripedHistogram(4);
+		striped.record(10);
+		Histogram other = new Histogram();
+		other.record(20);
+		other.record(30);
+		Histogram merged = striped.merge();
+		merged.add(other);
+		assertEquals(3, merged.getCount());
+		assertEquals(60, merged.getSum());
+		assertEquals(30, merged.getMax());
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue("expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.25);
+	}
+
+}
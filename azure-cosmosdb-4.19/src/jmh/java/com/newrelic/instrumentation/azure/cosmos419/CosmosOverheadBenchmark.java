@@ -0,0 +1,261 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Subscription;
+
+import com.azure.cosmos.implementation.apachecommons.lang.tuple.Pair;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.ModelBridgeInternal;
+import com.azure.cosmos.models.PartitionKey;
+import com.newrelic.agent.bridge.Token;
+import com.newrelic.api.agent.DatastoreParameters;
+import com.newrelic.api.agent.Segment;
+import com.newrelic.api.agent.Transaction;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Per call overhead of the instrumentation of this module, measured against the azure-cosmos release the module is built with.
+ * The instrumented benchmarks run the same helper sequence as the woven methods, the difference to the matching baseline
+ * is the cost the extension adds to a single call.  Queries and readMany run over real FeedResponse pages carrying the
+ * request charge, request duration and partition key range headers, so the response handling is exercised as well.
+ * CosmosItemResponse has no public constructor, so point operations complete empty.
+ *
+ * The benchmarks run without the Java Agent attached.  query, readMany and pointOperation record into a stub transaction
+ * whose segments do nothing, background and fastPath measure the paths taken without a transaction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CosmosOverheadBenchmark {
+
+	private static final String CONTAINER_LINK = "dbs/benchmark-db/colls/benchmark-container";
+	private static final String CONTAINER_NAME = "benchmark-container";
+	private static final String OPERATION = "readItem";
+	private static final String QUERY = "SELECT c.id, c.total FROM c JOIN t IN c.tags WHERE c.tenant = @tenant AND t.name = 'priority' ORDER BY c.created DESC";
+	private static final int PAGES = 3;
+	private static final int ITEMS = 10;
+
+	private Flux<FeedResponse<String>> pages;
+	private Mono<FeedResponse<String>> readMany;
+	private Mono<CosmosItemResponse<String>> pointOperation;
+	private List<Pair<String, PartitionKey>> itemKeys;
+	private PartitionKey partitionKey;
+	private Transaction transaction;
+
+	@Setup
+	public void setup() {
+		List<FeedResponse<String>> responses = new ArrayList<FeedResponse<String>>();
+		for(int i = 0; i < PAGES; i++) {
+			responses.add(createPage(i));
+		}
+		pages = Flux.fromIterable(responses);
+		readMany = Mono.just(createPage(0));
+		pointOperation = Mono.empty();
+		partitionKey = new PartitionKey("tenant-0");
+		transaction = new StubTransaction().transaction;
+		itemKeys = new ArrayList<Pair<String, PartitionKey>>();
+		for(int i = 0; i < ITEMS; i++) {
+			itemKeys.add(Pair.of("item-" + i, new PartitionKey("tenant-" + (i % 3))));
+		}
+	}
+
+	private static FeedResponse<String> createPage(int range) {
+		List<String> items = new ArrayList<String>();
+		for(int i = 0; i < ITEMS; i++) {
+			items.add("item-" + i);
+		}
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("x-ms-request-charge", "2.83");
+		headers.put(CosmosUtils.REQUEST_DURATION_HEADER, "1.25");
+		headers.put("x-ms-documentdb-partitionkeyrangeid", Integer.toString(range));
+		headers.put("x-ms-item-count", Integer.toString(ITEMS));
+		return ModelBridgeInternal.createFeedResponse(items, headers);
+	}
+
+	/*
+	 * A transaction whose token is always active and whose segments do nothing.
+	 */
+	private static class StubTransaction implements InvocationHandler {
+
+		private final Transaction transaction = proxy(com.newrelic.agent.bridge.Transaction.class, this);
+		private final Token token = proxy(Token.class, this);
+		private final Segment segment = proxy(Segment.class, this);
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if(name.equals("getToken")) {
+				return token;
+			}
+			if(name.equals("getTransaction")) {
+				return transaction;
+			}
+			if(name.equals("startSegment")) {
+				return segment;
+			}
+			return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+		}
+
+		private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+			return type.cast(Proxy.newProxyInstance(StubTransaction.class.getClassLoader(), new Class<?>[] {type}, handler));
+		}
+	}
+
+	/*
+	 * The transaction lookup of the woven methods, answered by the stub since no agent is attached.
+	 */
+	private Transaction getTransaction() {
+		Transaction current = CosmosUtils.getTransaction();
+		return current != null ? current : transaction;
+	}
+
+	@Benchmark
+	public void queryBaseline(Blackhole bh) {
+		pages.subscribe(bh::consume);
+	}
+
+	/**
+	 * Mirrors the body of the woven RxDocumentClientImpl.createQuery.
+	 */
+	@Benchmark
+	public void query(Blackhole bh) {
+		Transaction transaction = getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			pages.subscribe(bh::consume);
+			return;
+		}
+
+		CosmosOperation operation = CosmosUtils.getQueryOperation(CONTAINER_LINK, QUERY);
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("CosmosAsyncClient/query", operation, transaction);
+		runnable.setAttributes("ResourceLink", CONTAINER_LINK, "ResourceType", "Document");
+		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
+		CosmosUtils.instrument(pages, runnable, errorConsumer).subscribe(bh::consume);
+	}
+
+	@Benchmark
+	public void readManyBaseline(Blackhole bh) {
+		readMany.subscribe(bh::consume);
+	}
+
+	/**
+	 * Mirrors the body of the woven RxDocumentClientImpl.readMany.
+	 */
+	@Benchmark
+	public void readMany(Blackhole bh) {
+		Transaction transaction = getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			readMany.subscribe(bh::consume);
+			return;
+		}
+		String collectionName = CosmosUtils.getIDFromLink(CONTAINER_LINK);
+
+		int distinctPartitionKeys = CosmosUtils.getDistinctPartitionKeys(itemKeys);
+		CosmosOperation operation = CosmosUtils.getOperation(collectionName, "readMany");
+		CosmosUtils.recordBatch(operation, itemKeys.size(), distinctPartitionKeys);
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/readMany", operation, transaction);
+		runnable.setAttributes("CollectionLink", CONTAINER_LINK, "ItemType", String.class.getName(), "RequestedCount", itemKeys.size(), "DistinctPartitionKeys", distinctPartitionKeys);
+		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
+		CosmosUtils.instrument(readMany, runnable, errorConsumer).subscribe(bh::consume);
+	}
+
+	@Benchmark
+	public void pointOperationBaseline(Blackhole bh) {
+		pointOperation.subscribe(bh::consume);
+	}
+
+	/**
+	 * Mirrors the body of the woven CosmosAsyncContainer.readItem, the other item methods differ only in their attributes.
+	 * The partition key is rendered when the segment ends.
+	 */
+	@Benchmark
+	public void pointOperation(Blackhole bh) {
+		Transaction transaction = getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			pointOperation.subscribe(bh::consume);
+			return;
+		}
+
+		CosmosOperation operation = CosmosUtils.getOperation(CONTAINER_NAME, "readItem");
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("CosmosAsyncContainer/readItem", operation, transaction);
+		runnable.setAttributes("PartitionKey", partitionKey, "ItemID", "item-0", "ItemType", String.class.getSimpleName());
+		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
+		CosmosUtils.instrument(pointOperation, runnable, errorConsumer).subscribe(bh::consume);
+	}
+
+	/**
+	 * An operation recorded outside of a transaction, which only records the background metrics.
+	 */
+	@Benchmark
+	public void background(Blackhole bh) {
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/readMany", CosmosUtils.getOperation(CONTAINER_NAME, "readMany"), null);
+		CosmosUtils.instrument(readMany, runnable, new ErrorConsumer(runnable)).subscribe(bh::consume);
+	}
+
+	/**
+	 * An operation outside of a transaction with background.enabled and context_token.enabled off, where the woven
+	 * methods only look up the transaction and return the publisher untouched.
+	 */
+	@Benchmark
+	public void fastPath(Blackhole bh) {
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(transaction == null) {
+			readMany.subscribe(bh::consume);
+		}
+	}
+
+	@Benchmark
+	public CosmosOperation getOperation() {
+		return CosmosUtils.getOperation(CONTAINER_NAME, OPERATION);
+	}
+
+	@Benchmark
+	public DatastoreParameters buildDatastoreParameters() {
+		return DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(CONTAINER_NAME).operation(OPERATION).build();
+	}
+
+	@Benchmark
+	public String getIDFromLink() {
+		return CosmosUtils.getIDFromLink(CONTAINER_LINK);
+	}
+
+	@Benchmark
+	public String classifyQuery() {
+		return CosmosSqlParser.getOperation(QUERY);
+	}
+
+	@Benchmark
+	public String fingerprintQuery() {
+		return QueryFingerprint.normalize(QUERY);
+	}
+
+	@Benchmark
+	public CosmosOperation getQueryOperation() {
+		return CosmosUtils.getQueryOperation(CONTAINER_LINK, QUERY);
+	}
+
+}
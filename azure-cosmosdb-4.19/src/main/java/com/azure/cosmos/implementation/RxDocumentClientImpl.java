@@ -1,18 +1,15 @@
 package com.azure.cosmos.implementation;
 
-import java.util.HashMap;
-
 import org.reactivestreams.Subscription;
 
 import com.azure.cosmos.models.CosmosQueryRequestOptions;
 import com.azure.cosmos.models.FeedResponse;
 import com.azure.cosmos.models.PartitionKey;
-import com.newrelic.api.agent.DatastoreParameters;
-import com.newrelic.api.agent.NewRelic;
+import com.newrelic.api.agent.Transaction;
 import com.newrelic.api.agent.weaver.Weave;
 import com.newrelic.api.agent.weaver.Weaver;
-import com.newrelic.instrumentation.azure.cosmos419.AzureUtils;
 import com.newrelic.instrumentation.azure.cosmos419.CompletionRunnable;
+import com.newrelic.instrumentation.azure.cosmos419.CosmosOperation;
 import com.newrelic.instrumentation.azure.cosmos419.CosmosUtils;
 import com.newrelic.instrumentation.azure.cosmos419.ErrorConsumer;
 
@@ -26,38 +23,49 @@ public abstract class RxDocumentClientImpl {
 			String collectionLink,
 			PartitionKey partitionKey,
 			CosmosQueryRequestOptions options) {
-		HashMap<String,Object> attributes = new HashMap<String, Object>();
-
-		AzureUtils.addAttribute(attributes, "Operation", "readAllDocuments");
-		AzureUtils.addAttribute(attributes, "CollectionLink", collectionLink);
-		AzureUtils.addPartitionKey(attributes, partitionKey);
-
-
 		Flux<FeedResponse<Document>> result = Weaver.callOriginal();
-		DatastoreParameters params = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(CosmosUtils.getIDFromLink(collectionLink)).operation("readAllDocuments").build();
-		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/readAllDocuments", params, NewRelic.getAgent().getTransaction());
-		runnable.setAttributes(attributes);
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
+		}
+		
+		CosmosOperation operation = CosmosUtils.getOperation(CosmosUtils.getIDFromLink(collectionLink), "readAllDocuments");
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/readAllDocuments", operation, transaction);
+		runnable.setAttributes("Operation", "readAllDocuments", "CollectionLink", collectionLink, "PartitionKey", partitionKey);
 		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
 
-		return result.doOnSubscribe(runnable).doOnCancel(runnable).doOnTerminate(runnable).doOnError(errorConsumer);
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
 
 	}
 
 	public Mono<ResourceResponse<Document>> deleteAllDocumentsByPartitionKey(String collectionLink, PartitionKey partitionKey, RequestOptions options) {
-		HashMap<String,Object> attributes = new HashMap<String, Object>();
-
-		AzureUtils.addAttribute(attributes, "Operation", "deleteAllDocumentsByPartitionKey");
-		AzureUtils.addAttribute(attributes, "CollectionLink", collectionLink);
-		AzureUtils.addPartitionKey(attributes, partitionKey);
+		Mono<ResourceResponse<Document>> result = Weaver.callOriginal();
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
+		}
 		
+		CosmosOperation operation = CosmosUtils.getOperation(CosmosUtils.getIDFromLink(collectionLink), "deleteAllDocumentsByPartitionKey");
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/deleteAllDocumentsByPartitionKey", operation, transaction);
+		runnable.setAttributes("Operation", "deleteAllDocumentsByPartitionKey", "CollectionLink", collectionLink, "PartitionKey", partitionKey);
+		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
+		
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
+	}
+
+	public Mono<ResourceResponse<Document>> deleteDocument(String documentLink, InternalObjectNode internalObjectNode, RequestOptions options) {
 		Mono<ResourceResponse<Document>> result = Weaver.callOriginal();
-		DatastoreParameters params = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(CosmosUtils.getIDFromLink(collectionLink)).operation("deleteAllDocumentsByPartitionKey").build();
-		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/deleteAllDocumentsByPartitionKey", params, NewRelic.getAgent().getTransaction());
-		runnable.setAttributes(attributes);
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
+		}
+		
+		CosmosOperation operation = CosmosUtils.getOperation(CosmosUtils.getCollectionFromLink(documentLink), "deleteDocument");
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("RxDocumentClientImpl/deleteDocument", operation, transaction);
+		runnable.setAttributes("Operation", "deleteDocument", "DocumentLink", documentLink);
 		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
 		
-		return result.doOnSubscribe(runnable).doOnTerminate(runnable).doOnCancel(runnable).doOnError(errorConsumer);		
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
 	}
-	
-	
+
 }
@@ -9,30 +9,13 @@ import com.azure.cosmos.implementation.Offer;
 import com.azure.cosmos.implementation.StoredProcedure;
 import com.azure.cosmos.implementation.User;
 import com.azure.cosmos.models.PartitionKey;
-import com.newrelic.agent.database.SqlObfuscator;
 import com.newrelic.api.agent.QueryConverter;
 
 public class AzureUtils {
 	
 	public static QueryConverter<String> getConverter() {
-		return 	new QueryConverter<String>() {
-			
-			@Override
-			public String toRawQueryString(String rawQuery) {
-				return rawQuery;
-			}
-			
-			@Override
-			public String toObfuscatedQueryString(String rawQuery) {
-				SqlObfuscator obfuscator = SqlObfuscator.getDefaultSqlObfuscator();
-				
-				return obfuscator.obfuscateSql(rawQuery);
-			}
-		};
-
+		return CosmosQueryConverter.INSTANCE;
 	}
-	
-
 
 	public static void addAttribute(Map<String, Object> attributes, String key, Object value) {
 		if(attributes != null && key != null && !key.isEmpty() && value != null) {
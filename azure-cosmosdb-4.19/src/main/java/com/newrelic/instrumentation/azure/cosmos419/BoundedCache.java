@@ -0,0 +1,120 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.newrelic.api.agent.NewRelic;
+
+/**
+ * Concurrent cache with a maximum size.
+ */
+public class BoundedCache<K, V> implements HarvestReporter {
+
+	private final ConcurrentHashMap<K, Entry<V>> map;
+	private final Queue<K> clock = new ConcurrentLinkedQueue<K>();
+	private final int maxSize;
+	private final String metricPrefix;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public BoundedCache(String name, int maxSize) {
+		this.maxSize = Math.max(maxSize, 1);
+		map = new ConcurrentHashMap<K, Entry<V>>(Math.min(this.maxSize, 256));
+		metricPrefix = "Custom/CosmosDB/Cache/" + name + "/";
+	}
+
+	public V get(K key) {
+		Entry<V> entry = key != null ? map.get(key) : null;
+		if(entry == null) {
+			misses.increment();
+			return null;
+		}
+		if(!entry.referenced) {
+			entry.referenced = true;
+		}
+		hits.increment();
+		return entry.value;
+	}
+
+	public V get(K key, Function<? super K, ? extends V> loader) {
+		V value = get(key);
+		if(value == null && key != null) {
+			value = loader.apply(key);
+			put(key, value);
+		}
+		return value;
+	}
+
+	public void put(K key, V value) {
+		if(key == null || value == null) {
+			return;
+		}
+		if(map.put(key, new Entry<V>(value)) == null) {
+			// evict before the new key joins the clock, so it cannot be the one swept out
+			if(map.size() > maxSize) {
+				evict();
+			}
+			clock.offer(key);
+		}
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public void clear() {
+		map.clear();
+		clock.clear();
+	}
+
+	private void evict() {
+		// every key gets one second chance, bound the sweep in case readers keep setting the bit
+		int remaining = 2 * maxSize + 16;
+		while(map.size() > maxSize && remaining-- > 0) {
+			K candidate = clock.poll();
+			if(candidate == null) {
+				return;
+			}
+			Entry<V> entry = map.get(candidate);
+			if(entry == null) {
+				continue;
+			}
+			if(entry.referenced) {
+				entry.referenced = false;
+				clock.offer(candidate);
+			} else if(map.remove(candidate, entry)) {
+				evictions.increment();
+			}
+		}
+	}
+
+	@Override
+	public void report() {
+		report("Hits", hits);
+		report("Misses", misses);
+		report("Evictions", evictions);
+		NewRelic.recordMetric(metricPrefix + "Size", map.size());
+	}
+
+	private void report(String name, LongAdder counter) {
+		long count = counter.sumThenReset();
+		if(count > 0) {
+			NewRelic.incrementCounter(metricPrefix + name, (int)Math.min(count, Integer.MAX_VALUE));
+		}
+	}
+
+	private static class Entry<V> {
+
+		private final V value;
+		private volatile boolean referenced = false;
+
+		private Entry(V value) {
+			this.value = value;
+		}
+	}
+
+}
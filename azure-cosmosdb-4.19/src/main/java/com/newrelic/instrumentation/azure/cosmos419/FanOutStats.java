@@ -0,0 +1,71 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.azure.cosmos.models.FeedResponse;
+import com.newrelic.api.agent.Segment;
+
+/**
+ * Tracks the physical partitions a paged operation fans out to, from the partition key range id each page reports.
+ */
+public class FanOutStats {
+
+	public static final String HEADER = "x-ms-documentdb-partitionkeyrangeid";
+
+	private final Map<String, long[]> ranges = new HashMap<String, long[]>();
+
+	/*
+	 * Returns null when the page does not name its partition key range.
+	 */
+	public static String getRangeId(FeedResponse<?> page) {
+		Map<String, String> headers = page.getResponseHeaders();
+		return headers != null ? headers.get(HEADER) : null;
+	}
+
+	/*
+	 * serverMillis is the duration the page reports, or negative when it does not report one.
+	 */
+	public void onPage(String rangeId, double serverMillis) {
+		long[] range = ranges.get(rangeId);
+		if(range == null) {
+			range = new long[2];
+			ranges.put(rangeId, range);
+		}
+		range[0]++;
+		if(serverMillis > 0) {
+			range[1] += Math.round(serverMillis * 1000);
+		}
+	}
+
+	public void end(Segment segment, CosmosOperation operation) {
+		int count = ranges.size();
+		if(count == 0) {
+			return;
+		}
+		long[] latencies = new long[count];
+		long[] requests = new long[count];
+		int i = 0;
+		for(long[] range : ranges.values()) {
+			requests[i] = range[0];
+			latencies[i++] = TimeUnit.MICROSECONDS.toMillis(range[1]);
+		}
+		Arrays.sort(latencies);
+		Arrays.sort(requests);
+		segment.addCustomAttribute("PartitionRangeCount", count);
+		segment.addCustomAttribute("MaxRangeRequests", requests[count - 1]);
+		segment.addCustomAttribute("MedianRangeRequests", requests[(count - 1) / 2]);
+		segment.addCustomAttribute("MaxRangeMillis", latencies[count - 1]);
+		segment.addCustomAttribute("MedianRangeMillis", latencies[(count - 1) / 2]);
+		if(operation != null) {
+			HistogramRegistry.INSTANCE.record(operation.getFanOutMetric(), count);
+			for(int j = 0; j < count; j++) {
+				HistogramRegistry.INSTANCE.record(operation.getRangeRequestsMetric(), requests[j]);
+				HistogramRegistry.INSTANCE.record(operation.getRangeLatencyMetric(), latencies[j]);
+			}
+		}
+	}
+
+}
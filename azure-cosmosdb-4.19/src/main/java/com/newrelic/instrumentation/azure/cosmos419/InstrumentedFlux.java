@@ -0,0 +1,45 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import org.reactivestreams.Subscription;
+
+import reactor.core.CoreSubscriber;
+import reactor.core.Fuseable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxOperator;
+
+public class InstrumentedFlux<T> extends FluxOperator<T, T> {
+
+	protected final CompletionRunnable<Subscription> runnable;
+	protected final ErrorConsumer errorConsumer;
+
+	public static <T> Flux<T> create(Flux<? extends T> source, CompletionRunnable<Subscription> runnable, ErrorConsumer errorConsumer) {
+		if(source instanceof Fuseable) {
+			return new FuseableFlux<T>(source, runnable, errorConsumer);
+		}
+		return new InstrumentedFlux<T>(source, runnable, errorConsumer);
+	}
+
+	protected InstrumentedFlux(Flux<? extends T> source, CompletionRunnable<Subscription> runnable, ErrorConsumer errorConsumer) {
+		super(source);
+		this.runnable = runnable;
+		this.errorConsumer = errorConsumer;
+	}
+
+	@Override
+	public void subscribe(CoreSubscriber<? super T> actual) {
+		source.subscribe(new InstrumentedSubscriber<T>(actual, runnable.forSubscription(actual.currentContext()), errorConsumer, true));
+	}
+
+	private static class FuseableFlux<T> extends InstrumentedFlux<T> implements Fuseable {
+
+		private FuseableFlux(Flux<? extends T> source, CompletionRunnable<Subscription> runnable, ErrorConsumer errorConsumer) {
+			super(source, runnable, errorConsumer);
+		}
+
+		@Override
+		public void subscribe(CoreSubscriber<? super T> actual) {
+			source.subscribe(new InstrumentedSubscriber.FuseableSubscriber<T>(actual, runnable.forSubscription(actual.currentContext()), errorConsumer, true));
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import org.reactivestreams.Subscription;
+
+import reactor.core.CoreSubscriber;
+import reactor.core.Fuseable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoOperator;
+
+public class InstrumentedMono<T> extends MonoOperator<T, T> {
+
+	protected final CompletionRunnable<Subscription> runnable;
+	protected final ErrorConsumer errorConsumer;
+
+	public static <T> Mono<T> create(Mono<? extends T> source, CompletionRunnable<Subscription> runnable, ErrorConsumer errorConsumer) {
+		if(source instanceof Fuseable) {
+			return new FuseableMono<T>(source, runnable, errorConsumer);
+		}
+		return new InstrumentedMono<T>(source, runnable, errorConsumer);
+	}
+
+	protected InstrumentedMono(Mono<? extends T> source, CompletionRunnable<Subscription> runnable, ErrorConsumer errorConsumer) {
+		super(source);
+		this.runnable = runnable;
+		this.errorConsumer = errorConsumer;
+	}
+
+	@Override
+	public void subscribe(CoreSubscriber<? super T> actual) {
+		source.subscribe(new InstrumentedSubscriber<T>(actual, runnable.forSubscription(actual.currentContext()), errorConsumer, false));
+	}
+
+	private static class FuseableMono<T> extends InstrumentedMono<T> implements Fuseable {
+
+		private FuseableMono(Mono<? extends T> source, CompletionRunnable<Subscription> runnable, ErrorConsumer errorConsumer) {
+			super(source, runnable, errorConsumer);
+		}
+
+		@Override
+		public void subscribe(CoreSubscriber<? super T> actual) {
+			source.subscribe(new InstrumentedSubscriber.FuseableSubscriber<T>(actual, runnable.forSubscription(actual.currentContext()), errorConsumer, false));
+		}
+	}
+
+}
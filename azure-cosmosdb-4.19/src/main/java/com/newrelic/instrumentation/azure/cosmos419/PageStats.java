@@ -0,0 +1,51 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.azure.cosmos.models.FeedResponse;
+import com.newrelic.api.agent.Segment;
+
+/**
+ * Aggregates the pages of one subscription to a paged publisher as they stream by, without holding on to them.
+ */
+public class PageStats {
+
+	private int pageCount = 0;
+	private long itemCount = 0;
+	private int continuationCount = 0;
+	private long slowestPageNanos = 0;
+	private int slowestPage = 0;
+
+	public void onPage(FeedResponse<?> page, long latency) {
+		pageCount++;
+		List<?> results = page.getResults();
+		if(results != null) {
+			itemCount += results.size();
+		}
+		if(page.getContinuationToken() != null) {
+			continuationCount++;
+		}
+		if(latency > slowestPageNanos) {
+			slowestPageNanos = latency;
+			slowestPage = pageCount;
+		}
+	}
+
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	public boolean isSlowestPage() {
+		return slowestPage == pageCount;
+	}
+
+	public void addAttributes(Segment segment) {
+		segment.addCustomAttribute("PageCount", pageCount);
+		segment.addCustomAttribute("ItemCount", itemCount);
+		segment.addCustomAttribute("ContinuationCount", continuationCount);
+		segment.addCustomAttribute("SlowestPage", slowestPage);
+		segment.addCustomAttribute("SlowestPageMillis", TimeUnit.NANOSECONDS.toMillis(slowestPageNanos));
+	}
+
+}
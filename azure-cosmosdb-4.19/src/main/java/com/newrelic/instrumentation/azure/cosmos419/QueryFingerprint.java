@@ -0,0 +1,133 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+/**
+ * Reduces a query text to its shape, with literals replaced by ?.
+ */
+public class QueryFingerprint {
+
+	public static String normalize(String sql) {
+		if(sql == null) {
+			return null;
+		}
+		int length = sql.length();
+		StringBuilder builder = new StringBuilder(length);
+		boolean afterIn = false;
+		int i = 0;
+		while(i < length) {
+			char c = sql.charAt(i);
+			if(Character.isWhitespace(c)) {
+				while(i < length && Character.isWhitespace(sql.charAt(i))) {
+					i++;
+				}
+				if(builder.length() > 0 && i < length && builder.charAt(builder.length() - 1) != ' ') {
+					builder.append(' ');
+				}
+				continue;
+			}
+			if(c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+				while(i < length && sql.charAt(i) != '\n') {
+					i++;
+				}
+				continue;
+			}
+			if(c == '\'' || c == '"') {
+				int start = i;
+				i = skipLiteral(sql, i, c);
+				if(builder.length() > 0 && builder.charAt(builder.length() - 1) == '[') {
+					builder.append(sql, start, i);
+				} else {
+					builder.append('?');
+				}
+				afterIn = false;
+				continue;
+			}
+			if(c == '(' && afterIn) {
+				i = skipList(sql, i);
+				builder.append("(?)");
+				afterIn = false;
+				continue;
+			}
+			if(isNumberStart(sql, i)) {
+				i++;
+				while(i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				builder.append('?');
+				afterIn = false;
+				continue;
+			}
+			if(Character.isLetter(c) || c == '_' || c == '@') {
+				int start = i;
+				i++;
+				while(i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+					i++;
+				}
+				boolean property = start > 0 && sql.charAt(start - 1) == '.';
+				if(!property && (matches(sql, start, i, "true") || matches(sql, start, i, "false") || matches(sql, start, i, "null"))) {
+					builder.append('?');
+					afterIn = false;
+				} else {
+					builder.append(sql, start, i);
+					afterIn = !property && matches(sql, start, i, "IN");
+				}
+				continue;
+			}
+			builder.append(c);
+			i++;
+		}
+		int end = builder.length();
+		if(end > 0 && builder.charAt(end - 1) == ' ') {
+			builder.setLength(end - 1);
+		}
+		return builder.toString();
+	}
+
+	private static boolean isNumberStart(String sql, int i) {
+		char c = sql.charAt(i);
+		if(c == '-' && i + 1 < sql.length() && Character.isDigit(sql.charAt(i + 1))) {
+			return i == 0 || !Character.isLetterOrDigit(sql.charAt(i - 1)) && sql.charAt(i - 1) != ')';
+		}
+		return Character.isDigit(c) && (i == 0 || !Character.isLetterOrDigit(sql.charAt(i - 1)) && sql.charAt(i - 1) != '_');
+	}
+
+	private static int skipLiteral(String sql, int i, char quote) {
+		int length = sql.length();
+		i++;
+		while(i < length) {
+			char c = sql.charAt(i);
+			if(c == '\\') {
+				i += 2;
+				continue;
+			}
+			i++;
+			if(c == quote) {
+				break;
+			}
+		}
+		return i;
+	}
+
+	private static int skipList(String sql, int i) {
+		int length = sql.length();
+		int depth = 0;
+		while(i < length) {
+			char c = sql.charAt(i);
+			if(c == '\'' || c == '"') {
+				i = skipLiteral(sql, i, c);
+				continue;
+			}
+			i++;
+			if(c == '(') {
+				depth++;
+			} else if(c == ')' && --depth == 0) {
+				break;
+			}
+		}
+		return i;
+	}
+
+	private static boolean matches(String sql, int start, int end, String keyword) {
+		return end - start == keyword.length() && sql.regionMatches(true, start, keyword, 0, keyword.length());
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
+import com.newrelic.api.agent.NewRelic;
+import com.newrelic.api.agent.Segment;
+
+/**
+ * Opt in capture of the server side query metrics of slow queries.
+ */
+public class QueryMetricsCapture {
+
+	public static final String HEADER = "x-ms-documentdb-query-metrics";
+
+	private static final boolean ENABLED = CosmosConfig.getBoolean(CosmosConfig.QUERY_METRICS_ENABLED, false);
+	private static final long THRESHOLD_MILLIS = CosmosConfig.getInt(CosmosConfig.QUERY_METRICS_THRESHOLD_MS, 500);
+	private static final BoundedCache<String, Boolean> slowQueries;
+	private static final Constructor<CosmosQueryRequestOptions> COPY = ENABLED ? getCopyConstructor() : null;
+
+	private static final String[] KEYS = {"retrievedDocumentCount", "outputDocumentCount", "indexUtilizationRatio", "indexLookupTimeInMs", "documentLoadTimeInMs", "totalExecutionTimeInMs"};
+	private static final String[] ATTRIBUTES = {"QueryMetrics.RetrievedDocumentCount", "QueryMetrics.OutputDocumentCount", "QueryMetrics.IndexHitRatio", "QueryMetrics.IndexLookupMillis", "QueryMetrics.DocumentLoadMillis", "QueryMetrics.ExecutionMillis"};
+	private static final int RETRIEVED = 0;
+	private static final int INDEX_HIT_RATIO = 2;
+
+	static {
+		if(ENABLED) {
+			slowQueries = new BoundedCache<String, Boolean>("SlowQueries", CosmosConfig.getInt(CosmosConfig.QUERY_METRICS_MAX_SIZE, 200));
+			CosmosHarvestListener.addReporter(slowQueries);
+		} else {
+			slowQueries = null;
+		}
+	}
+
+	private final String key;
+	private List<String> headers = null;
+
+	private QueryMetricsCapture(String key) {
+		this.key = key;
+	}
+
+	/*
+	 * Null unless capture is enabled and the operation is a query.
+	 */
+	public static QueryMetricsCapture create(CosmosOperation operation) {
+		if(!ENABLED || operation == null || operation.getQuery() == null) {
+			return null;
+		}
+		return new QueryMetricsCapture(getKey(operation.getQuery(), operation.getFingerprint()));
+	}
+
+	/*
+	 * Called before the query is issued, so queries that were slow before come back with query metrics.
+	 */
+	public static CosmosQueryRequestOptions prepare(String query, CosmosQueryRequestOptions options) {
+		if(!ENABLED || COPY == null || query == null || options == null || options.isQueryMetricsEnabled()) {
+			return options;
+		}
+		if(slowQueries.get(getKey(query, CosmosUtils.getFingerprint(query))) == null) {
+			return options;
+		}
+		try {
+			return COPY.newInstance(options).setQueryMetricsEnabled(true);
+		} catch (Exception e) {
+			return options;
+		}
+	}
+
+	/*
+	 * The copy constructor is package private in every 4.x release.
+	 */
+	private static Constructor<CosmosQueryRequestOptions> getCopyConstructor() {
+		try {
+			Constructor<CosmosQueryRequestOptions> constructor = CosmosQueryRequestOptions.class.getDeclaredConstructor(CosmosQueryRequestOptions.class);
+			constructor.setAccessible(true);
+			return constructor;
+		} catch (Exception e) {
+			NewRelic.getAgent().getLogger().log(Level.FINE, e, "CosmosQueryRequestOptions cannot be copied, query metrics of slow queries are not requested");
+			return null;
+		}
+	}
+
+	private static String getKey(String query, String fingerprint) {
+		return fingerprint != null ? fingerprint : query;
+	}
+
+	public void onPage(FeedResponse<?> page) {
+		Map<String, String> responseHeaders = page.getResponseHeaders();
+		String value = responseHeaders != null ? responseHeaders.get(HEADER) : null;
+		if(value != null) {
+			if(headers == null) {
+				headers = new ArrayList<String>();
+			}
+			headers.add(value);
+		}
+	}
+
+	public void end(Segment segment, long millis) {
+		if(millis < THRESHOLD_MILLIS) {
+			return;
+		}
+		slowQueries.put(key, Boolean.TRUE);
+		if(headers == null) {
+			return;
+		}
+		double[] totals = new double[KEYS.length];
+		double indexHits = 0;
+		for(String header : headers) {
+			double[] values = parse(header);
+			for(int i = 0; i < KEYS.length; i++) {
+				totals[i] += values[i];
+			}
+			indexHits += values[INDEX_HIT_RATIO] * values[RETRIEVED];
+		}
+		totals[INDEX_HIT_RATIO] = totals[RETRIEVED] > 0 ? indexHits / totals[RETRIEVED] : 0;
+		for(int i = 0; i < KEYS.length; i++) {
+			segment.addCustomAttribute(ATTRIBUTES[i], totals[i]);
+		}
+	}
+
+	/*
+	 * The header is a list of name=value pairs separated by semicolons.
+	 */
+	private static double[] parse(String header) {
+		double[] values = new double[KEYS.length];
+		int start = 0;
+		int length = header.length();
+		while(start < length) {
+			while(start < length && header.charAt(start) == ' ') {
+				start++;
+			}
+			int end = header.indexOf(';', start);
+			if(end < 0) {
+				end = length;
+			}
+			int equals = header.indexOf('=', start);
+			if(equals > start && equals < end) {
+				for(int i = 0; i < KEYS.length; i++) {
+					if(header.regionMatches(true, start, KEYS[i], 0, KEYS[i].length()) && equals - start == KEYS[i].length()) {
+						try {
+							values[i] = Double.parseDouble(header.substring(equals + 1, end).trim());
+						} catch (NumberFormatException e) {
+							values[i] = 0;
+						}
+						break;
+					}
+				}
+			}
+			start = end + 1;
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,182 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.newrelic.api.agent.NewRelic;
+
+/**
+ * Per harvest statistics of each query fingerprint and container.
+ */
+public class QueryStatsTable implements HarvestReporter {
+
+	public static final String EVENT_TYPE = "CosmosQueryStats";
+	private static final String DROPPED_METRIC = "Custom/CosmosDB/QueryStats/Dropped";
+	private static final int STRIPES = 16;
+
+	public static final QueryStatsTable INSTANCE = new QueryStatsTable(CosmosConfig.getInt(CosmosConfig.QUERY_STATS_MAX_SIZE, 500), CosmosConfig.getInt(CosmosConfig.QUERY_STATS_TOP_N, 20));
+
+	private final int stripeSize;
+	private final int topN;
+	private final LongAdder dropped = new LongAdder();
+	private volatile Generation generation;
+
+	QueryStatsTable(int maxSize, int topN) {
+		stripeSize = Math.max(1, maxSize / STRIPES);
+		this.topN = topN;
+		generation = new Generation(stripeSize);
+		CosmosHarvestListener.addReporter(this);
+	}
+
+	public void record(CosmosOperation operation, long millis, double requestCharge, int pages, boolean error) {
+		String fingerprint = operation.getFingerprint();
+		if(fingerprint == null) {
+			return;
+		}
+		Generation current = enter();
+		try {
+			QueryStats stats = current.stripes[(fingerprint.hashCode() & 0x7fffffff) % STRIPES].get(operation);
+			if(stats == null) {
+				dropped.increment();
+				return;
+			}
+			stats.count.increment();
+			stats.latency.record(millis);
+			stats.requestCharge.add(requestCharge);
+			stats.pages.add(pages);
+			if(error) {
+				stats.errors.increment();
+			}
+		} finally {
+			current.writers.exit();
+		}
+	}
+
+	private Generation enter() {
+		while(true) {
+			Generation current = generation;
+			current.writers.enter();
+			if(current == generation) {
+				return current;
+			}
+			current.writers.exit();
+		}
+	}
+
+	@Override
+	public void report() {
+		for(Map<String, Object> event : drainEvents()) {
+			NewRelic.getAgent().getInsights().recordCustomEvent(EVENT_TYPE, event);
+		}
+	}
+
+	/*
+	 * Resets the table and returns the events of the top fingerprints, most total time first.
+	 */
+	List<Map<String, Object>> drainEvents() {
+		List<Map<String, Object>> events = new ArrayList<Map<String, Object>>();
+		Generation previous = generation;
+		generation = new Generation(stripeSize);
+		previous.writers.await();
+		List<QueryStats> all = new ArrayList<QueryStats>();
+		for(Stripe stripe : previous.stripes) {
+			all.addAll(stripe.values());
+		}
+		long droppedCount = dropped.sumThenReset();
+		if(droppedCount > 0) {
+			NewRelic.incrementCounter(DROPPED_METRIC, (int)Math.min(droppedCount, Integer.MAX_VALUE));
+		}
+		if(all.isEmpty() || topN <= 0) {
+			return events;
+		}
+		Collections.sort(all, new Comparator<QueryStats>() {
+			@Override
+			public int compare(QueryStats first, QueryStats second) {
+				return Long.compare(second.latency.getSum(), first.latency.getSum());
+			}
+		});
+		int reported = Math.min(topN, all.size());
+		for(int i = 0; i < reported; i++) {
+			QueryStats stats = all.get(i);
+			long count = stats.count.sum();
+			Map<String, Object> event = new HashMap<String, Object>();
+			event.put("fingerprint", stats.fingerprint);
+			event.put("container", stats.collection);
+			event.put("operation", stats.operation);
+			event.put("rank", i + 1);
+			event.put("count", count);
+			event.put("errors", stats.errors.sum());
+			event.put("totalMillis", stats.latency.getSum());
+			event.put("averageMillis", count > 0 ? (double)stats.latency.getSum() / count : 0d);
+			event.put("p50Millis", stats.latency.getPercentile(50));
+			event.put("p95Millis", stats.latency.getPercentile(95));
+			event.put("p99Millis", stats.latency.getPercentile(99));
+			event.put("maxMillis", stats.latency.getMax());
+			event.put("requestCharge", stats.requestCharge.sum());
+			event.put("pageCount", stats.pages.sum());
+			events.add(event);
+		}
+		return events;
+	}
+
+	private static class Generation {
+
+		private final Stripe[] stripes = new Stripe[STRIPES];
+		private final WriterGate writers = new WriterGate(STRIPES);
+
+		private Generation(int stripeSize) {
+			for(int i = 0; i < STRIPES; i++) {
+				stripes[i] = new Stripe(stripeSize);
+			}
+		}
+	}
+
+	private static class Stripe {
+
+		private final int maxSize;
+		private final Map<String, QueryStats> entries = new HashMap<String, QueryStats>();
+
+		private Stripe(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		private synchronized QueryStats get(CosmosOperation operation) {
+			String key = operation.getCollection() + '\n' + operation.getFingerprint();
+			QueryStats stats = entries.get(key);
+			if(stats == null && entries.size() < maxSize) {
+				stats = new QueryStats(operation.getFingerprint(), operation.getCollection(), operation.getOperation());
+				entries.put(key, stats);
+			}
+			return stats;
+		}
+
+		private synchronized List<QueryStats> values() {
+			return new ArrayList<QueryStats>(entries.values());
+		}
+	}
+
+	private static class QueryStats {
+
+		private final String fingerprint;
+		private final String collection;
+		private final String operation;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder pages = new LongAdder();
+		private final DoubleAdder requestCharge = new DoubleAdder();
+		private final Histogram latency = new Histogram();
+
+		private QueryStats(String fingerprint, String collection, String operation) {
+			this.fingerprint = fingerprint;
+			this.collection = collection;
+			this.operation = operation;
+		}
+	}
+
+}
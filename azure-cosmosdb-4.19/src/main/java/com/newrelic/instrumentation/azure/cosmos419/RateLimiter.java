@@ -0,0 +1,58 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket allowing a number of permits per minute, with bursts of up to that many permits.
+ */
+public class RateLimiter {
+
+	private static final long MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	private final long interval;
+	private final long tolerance;
+	private final AtomicLong arrival;
+
+	public RateLimiter(int permitsPerMinute) {
+		this(permitsPerMinute, System.nanoTime());
+	}
+
+	RateLimiter(int permitsPerMinute, long startNanos) {
+		interval = permitsPerMinute > 0 ? MINUTE_NANOS / permitsPerMinute : 0;
+		tolerance = permitsPerMinute > 0 ? interval * (permitsPerMinute - 1) : 0;
+		arrival = new AtomicLong(startNanos);
+	}
+
+	public boolean tryAcquire() {
+		return tryAcquire(System.nanoTime());
+	}
+
+	boolean tryAcquire(long now) {
+		if(interval == 0) {
+			return false;
+		}
+		while(true) {
+			long current = arrival.get();
+			if(current - now > tolerance) {
+				return false;
+			}
+			long next = (current - now < 0 ? now : current) + interval;
+			if(arrival.compareAndSet(current, next)) {
+				return true;
+			}
+		}
+	}
+
+	/*
+	 * True when the bucket is full again, i.e. the limiter holds no state worth keeping.
+	 */
+	public boolean isIdle() {
+		return isIdle(System.nanoTime());
+	}
+
+	boolean isIdle(long now) {
+		return arrival.get() - now <= 0;
+	}
+
+}
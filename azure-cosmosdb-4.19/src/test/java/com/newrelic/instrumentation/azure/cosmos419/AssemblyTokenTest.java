@@ -0,0 +1,142 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+
+import com.newrelic.agent.bridge.Token;
+import com.newrelic.agent.bridge.Transaction;
+import com.newrelic.api.agent.Segment;
+
+import reactor.util.context.Context;
+
+public class AssemblyTokenTest {
+
+	/*
+	 * A transaction that hands out a single token and counts the segments started in it.
+	 */
+	private static class FakeTransaction implements InvocationHandler {
+
+		private boolean expired = false;
+		private int segments = 0;
+		private final Transaction transaction = proxy(Transaction.class, this);
+		private final Token token = proxy(Token.class, this);
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if(proxy == token) {
+				if(name.equals("expire")) {
+					expired = true;
+					return true;
+				}
+				if(name.equals("isActive")) {
+					return !expired;
+				}
+				if(name.equals("getTransaction")) {
+					return transaction;
+				}
+			} else if(name.equals("getToken")) {
+				return token;
+			} else if(name.equals("startSegment")) {
+				segments++;
+				return proxy(Segment.class, this);
+			}
+			return defaultValue(method.getReturnType());
+		}
+	}
+
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(AssemblyTokenTest.class.getClassLoader(), new Class<?>[] {type}, handler));
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if(type == boolean.class) {
+			return false;
+		}
+		if(type == int.class) {
+			return 0;
+		}
+		if(type == long.class) {
+			return 0L;
+		}
+		if(type == double.class) {
+			return 0d;
+		}
+		if(type == float.class) {
+			return 0f;
+		}
+		return null;
+	}
+
+	private static CompletionRunnable<Subscription> assemble(FakeTransaction fake) {
+		return new CompletionRunnable<Subscription>("AssemblyTokenTest/readItem", CosmosUtils.getOperation("token", "readItem"), fake.transaction);
+	}
+
+	@Test
+	public void resubscriptionKeepsTransaction() {
+		FakeTransaction fake = new FakeTransaction();
+		CompletionRunnable<Subscription> runnable = assemble(fake);
+		CompletionRunnable<Subscription> first = runnable.forSubscription(Context.empty());
+		first.accept(null);
+		first.end(CompletionRunnable.ERROR);
+		// a retry subscribes again from within the error signal, before the first subscription detaches
+		CompletionRunnable<Subscription> retry = runnable.forSubscription(Context.empty());
+		first.detach();
+		assertFalse(fake.expired);
+		retry.accept(null);
+		retry.end(CompletionRunnable.SUCCESS);
+		retry.detach();
+		assertEquals(2, fake.segments);
+		assertTrue(fake.expired);
+	}
+
+	@Test
+	public void lastSubscriberExpires() {
+		FakeTransaction fake = new FakeTransaction();
+		CompletionRunnable<Subscription> runnable = assemble(fake);
+		CompletionRunnable<Subscription> first = runnable.forSubscription(Context.empty());
+		CompletionRunnable<Subscription> second = runnable.forSubscription(Context.empty());
+		first.accept(null);
+		second.accept(null);
+		first.end(CompletionRunnable.SUCCESS);
+		first.detach();
+		first.detach();
+		assertFalse(fake.expired);
+		second.end(CompletionRunnable.CANCEL);
+		second.detach();
+		assertTrue(fake.expired);
+	}
+
+	@Test
+	public void neverSubscribedExpiresOnTimeout() {
+		FakeTransaction fake = new FakeTransaction();
+		CompletionRunnable<Subscription> runnable = assemble(fake);
+		assertFalse(fake.expired);
+		runnable.timeout();
+		assertTrue(fake.expired);
+		// a late subscription finds no transaction and is not recorded in it
+		runnable.forSubscription(Context.empty()).accept(null);
+		assertEquals(0, fake.segments);
+	}
+
+	@Test
+	public void lostSubscriberExpiresOnTimeout() {
+		FakeTransaction fake = new FakeTransaction();
+		CompletionRunnable<Subscription> runnable = assemble(fake);
+		CompletionRunnable<Subscription> subscription = runnable.forSubscription(Context.empty());
+		subscription.accept(null);
+		assertTrue(subscription.isRunning());
+		subscription.timeout();
+		assertFalse(subscription.isRunning());
+		assertTrue(fake.expired);
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.newrelic.instrumentation.azure.cosmos419;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CosmosSqlParserTest {
+
+	@Test
+	public void plainSelect() {
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("SELECT * FROM c WHERE c.tenant = @tenant"));
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("  select c.id, c.name from c"));
+	}
+
+	@Test
+	public void selectValue() {
+		assertEquals(CosmosSqlParser.SELECT_VALUE, CosmosSqlParser.getOperation("SELECT VALUE c.id FROM c"));
+		// VALUE only counts as the projection keyword right after SELECT
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("SELECT c.id FROM c WHERE c.value = 1"));
+	}
+
+	@Test
+	public void aggregates() {
+		assertEquals(CosmosSqlParser.AGGREGATE, CosmosSqlParser.getOperation("SELECT VALUE COUNT(1) FROM c"));
+		assertEquals(CosmosSqlParser.AGGREGATE, CosmosSqlParser.getOperation("SELECT sum (c.total) FROM c"));
+		assertEquals(CosmosSqlParser.AGGREGATE, CosmosSqlParser.getOperation("SELECT c.tenant FROM c GROUP BY c.tenant"));
+		// an aggregate wins over a join and an ordering
+		assertEquals(CosmosSqlParser.AGGREGATE, CosmosSqlParser.getOperation("SELECT MAX(t.n) FROM c JOIN t IN c.tags ORDER BY c.ts"));
+	}
+
+	@Test
+	public void aggregateNamesAsProperties() {
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("SELECT c.count, c.max FROM c"));
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("SELECT c.id FROM c WHERE c.min > 3"));
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("SELECT max_total FROM c"));
+	}
+
+	@Test
+	public void join() {
+		assertEquals(CosmosSqlParser.JOIN, CosmosSqlParser.getOperation("SELECT c.id FROM c JOIN t IN c.tags WHERE t.name = 'a'"));
+		assertEquals(CosmosSqlParser.JOIN, CosmosSqlParser.getOperation("SELECT c.id FROM c JOIN t IN c.tags ORDER BY c.ts"));
+	}
+
+	@Test
+	public void orderBy() {
+		assertEquals(CosmosSqlParser.ORDER_BY, CosmosSqlParser.getOperation("SELECT * FROM c ORDER BY c.ts DESC"));
+		assertEquals(CosmosSqlParser.ORDER_BY, CosmosSqlParser.getOperation("SELECT VALUE c.id FROM c order\n by c.ts"));
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("SELECT * FROM c WHERE c.order = 1 AND c.by = 2"));
+	}
+
+	@Test
+	public void keywordsInLiterals() {
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("SELECT * FROM c WHERE c.note = 'join order by count(1)'"));
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("SELECT * FROM c WHERE c.note = \"it\\\"s a JOIN\""));
+	}
+
+	@Test
+	public void quotedIdentifiers() {
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("SELECT c[\"join\"], c['count'] FROM c"));
+		assertEquals(CosmosSqlParser.ORDER_BY, CosmosSqlParser.getOperation("SELECT * FROM c ORDER BY c[\"order\"]"));
+	}
+
+	@Test
+	public void comments() {
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("-- JOIN t IN c.tags\nSELECT * FROM c"));
+		assertEquals(CosmosSqlParser.SELECT, CosmosSqlParser.getOperation("SELECT * FROM c -- ORDER BY c.ts"));
+	}
+
+	@Test
+	public void notAQuery() {
+		assertEquals(CosmosSqlParser.QUERY, CosmosSqlParser.getOperation(null));
+		assertEquals(CosmosSqlParser.QUERY, CosmosSqlParser.getOperation(""));
+		assertEquals(CosmosSqlParser.QUERY, CosmosSqlParser.getOperation("DELETE FROM c"));
+	}
+
+}
@@ -1,52 +1,435 @@
 package com.newrelic.instrumentation.azure.cosmos427;
 
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Consumer;
 
+import com.azure.cosmos.CosmosDiagnostics;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.FeedResponse;
+import com.newrelic.agent.bridge.Token;
 import com.newrelic.api.agent.DatastoreParameters;
+import com.newrelic.api.agent.NewRelic;
 import com.newrelic.api.agent.Segment;
 import com.newrelic.api.agent.Transaction;
 
+import reactor.util.context.Context;
+
 public class CompletionRunnable<T> implements Runnable,Consumer<T> {
 	
-	private Segment segment;
+	public static final String SUCCESS = "success";
+	public static final String ERROR = "error";
+	public static final String CANCEL = "cancel";
+	public static final String TIMEOUT = "timeout";
+	
+	private static final String TIMED_OUT_METRIC = "Custom/CosmosDB/Segments/TimedOut";
+	
+	/*
+	 * Completion, error and cancel signals can race on different threads, whoever swaps the segment out ends it.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<CompletionRunnable, Object> SEGMENT = AtomicReferenceFieldUpdater.newUpdater(CompletionRunnable.class, Object.class, "segment");
+	
+	private static final Object BACKGROUND = new Object();
+	
+	/*
+	 * The token taken at assembly is held by the publisher until its first subscription, then by the subscriptions that are active.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<CompletionRunnable, Token> ASSEMBLY_TOKEN = AtomicReferenceFieldUpdater.newUpdater(CompletionRunnable.class, Token.class, "assemblyToken");
+	
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<CompletionRunnable> HOLDERS = AtomicIntegerFieldUpdater.newUpdater(CompletionRunnable.class, "holders");
+	
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<CompletionRunnable> DETACHED = AtomicIntegerFieldUpdater.newUpdater(CompletionRunnable.class, "detached");
+	
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<CompletionRunnable> SUBSCRIPTIONS = AtomicIntegerFieldUpdater.newUpdater(CompletionRunnable.class, "subscriptions");
+	
+	private volatile Object segment;
 	private DatastoreParameters params;
 	private String segmentName;
+	private volatile Token assemblyToken = null;
+	private volatile int holders = 0;
+	private volatile int detached = 0;
+	private volatile SegmentReaper.Entry assemblyEntry = null;
 	private Transaction transaction = null;
-	private Map<String, Object> attributes = null;
+	private Object[] attributes = null;
+	private final CosmosOperation operation;
+	private final CompletionRunnable<T> template;
+	private final int attempt;
+	private volatile int subscriptions = 0;
+	private double requestCharge = 0;
+	private double serverMillis = -1;
+	private long startNanos = 0;
+	private PageStats pages = null;
+	private volatile DemandTimer demand = null;
+	private QueryMetricsCapture queryMetrics = null;
+	private FanOutStats fanOut = null;
+	private CosmosDiagnostics diagnostics = null;
+	private CosmosException exception = null;
+	private boolean background = false;
+	private volatile SegmentReaper.Entry reaperEntry = null;
+	
+	public CosmosOperation getOperation() {
+		return operation;
+	}
+	
+	public boolean isBackground() {
+		return background;
+	}
+	
+	boolean isRunning() {
+		return segment != null;
+	}
 	
-	public void setAttributes(Map<String, Object> attributes) {
+	/*
+	 * Attribute names and values in turns.
+	 */
+	public void setAttributes(Object... attributes) {
 		this.attributes = attributes;
 	}
 
 	public CompletionRunnable(String seg, DatastoreParameters p, Transaction t) {
-		params = p;
-		transaction = t;
-		segmentName = seg;
+		this(seg, p != null ? new CosmosOperation(p.getCollection(), p.getOperation(), p) : null, t);
 	}
 
+	public CompletionRunnable(String seg, CosmosOperation op, Transaction t) {
+		operation = op;
+		params = op != null ? op.getParams() : null;
+		segmentName = seg;
+		template = this;
+		attempt = 1;
+		assemblyToken = CosmosUtils.getToken(t);
+		if(assemblyToken != null) {
+			holders = 1;
+			assemblyEntry = SegmentReaper.INSTANCE.register(this);
+		}
+	}
+	
+	private CompletionRunnable(CompletionRunnable<T> original, int attempt, Transaction t) {
+		operation = original.operation;
+		params = original.params;
+		transaction = t;
+		segmentName = original.segmentName;
+		attributes = original.attributes;
+		template = original;
+		this.attempt = attempt;
+	}
+	
+	/*
+	 * Each subscription gets its own segment, so retries and repeats are timed separately.
+	 */
+	public CompletionRunnable<T> forSubscription(Context context) {
+		int count = SUBSCRIPTIONS.incrementAndGet(template);
+		if(count == 1) {
+			// the first subscription takes over the hold of the publisher
+			SegmentReaper.Entry entry = assemblyEntry;
+			if(entry != null) {
+				assemblyEntry = null;
+				entry.cancel();
+			}
+			transaction = CosmosUtils.getTransaction(context, assemblyToken);
+			return template;
+		}
+		if(template.assemblyToken != null) {
+			HOLDERS.incrementAndGet(template);
+		}
+		return new CompletionRunnable<T>(template, count, CosmosUtils.getTransaction(context, template.assemblyToken));
+	}
+	
+	/*
+	 * Releases the hold of this subscription on the assembly token, once it passed on its terminal signal or was timed out.
+	 */
+	public void detach() {
+		if(template.assemblyToken != null && DETACHED.compareAndSet(this, 0, 1) && HOLDERS.decrementAndGet(template) <= 0) {
+			expireAssemblyToken();
+		}
+	}
+	
+	/*
+	 * Called by the reaper at the deadline, for a subscription that never terminated or a publisher that was never subscribed to.
+	 */
+	void timeout() {
+		end(TIMEOUT);
+		detach();
+	}
+	
+	public void onResponse(Object response) {
+		if(response == null) {
+			return;
+		}
+		long now = System.nanoTime();
+		DemandTimer timer = demand;
+		// time waited for this response, for an unpaged publisher the time since the subscription
+		long latency = now - startNanos;
+		if(timer != null && !(response instanceof Throwable)) {
+			latency = timer.onDelivered(now);
+		}
+		double charge = CosmosUtils.getRequestCharge(response);
+		if(charge > 0) {
+			requestCharge += charge;
+		}
+		if(background) {
+			return;
+		}
+		double duration = CosmosUtils.getServerDuration(response);
+		if(duration >= 0) {
+			serverMillis = serverMillis < 0 ? duration : serverMillis + duration;
+		}
+		if(response instanceof CosmosException) {
+			exception = (CosmosException)response;
+		}
+		if(DiagnosticsSummary.ENABLED && !(response instanceof FeedResponse)) {
+			CosmosDiagnostics responseDiagnostics = CosmosUtils.getDiagnostics(response);
+			if(responseDiagnostics != null) {
+				diagnostics = responseDiagnostics;
+			}
+		}
+		if(response instanceof FeedResponse) {
+			PageStats pageStats = pages;
+			if(pageStats == null) {
+				pageStats = new PageStats();
+				pages = pageStats;
+			}
+			pageStats.onPage((FeedResponse<?>)response, latency);
+			if(DiagnosticsSummary.ENABLED && pageStats.isSlowestPage()) {
+				diagnostics = CosmosUtils.getDiagnostics(response);
+			}
+			String rangeId = FanOutStats.getRangeId((FeedResponse<?>)response);
+			if(rangeId != null) {
+				FanOutStats ranges = fanOut;
+				if(ranges == null) {
+					ranges = new FanOutStats();
+					fanOut = ranges;
+				}
+				ranges.onPage(rangeId, duration);
+			}
+			QueryMetricsCapture capture = queryMetrics;
+			if(capture != null) {
+				capture.onPage((FeedResponse<?>)response);
+			}
+			if(operation != null) {
+				NewRelic.recordResponseTimeMetric(operation.getPageMetric(), TimeUnit.NANOSECONDS.toMillis(latency));
+			}
+		}
+	}
+	
+	/*
+	 * Only called for paged publishers, where demand and consumption are timed separately from Cosmos latency.
+	 */
+	public void onRequest(long n) {
+		if(background) {
+			return;
+		}
+		DemandTimer timer = demand;
+		if(timer == null) {
+			timer = new DemandTimer();
+			demand = timer;
+		}
+		timer.onRequest(n, System.nanoTime());
+	}
+	
+	public void onConsumed() {
+		DemandTimer timer = demand;
+		if(timer != null) {
+			timer.onConsumed(System.nanoTime());
+		}
+	}
+	
 	@Override
 	public void run() {
-
-		if(segment != null) {
+		end(SUCCESS);
+	}
+	
+	public void end(String outcome) {
+		Object ended = SEGMENT.getAndSet(this, null);
+		if(ended == null) {
+			return;
+		}
+		SegmentReaper.Entry entry = reaperEntry;
+		if(entry != null) {
+			entry.cancel();
+		}
+		if(TIMEOUT.equals(outcome)) {
+			NewRelic.incrementCounter(TIMED_OUT_METRIC);
+		}
+		if(ended == BACKGROUND) {
+			endBackground(outcome);
+		} else {
+			Segment current = (Segment)ended;
 			if(params != null) {
-				segment.reportAsExternal(params);
+				current.reportAsExternal(params);
+			}
+			addAttributes(current);
+			current.addCustomAttribute("Outcome", outcome);
+			CosmosException error = exception;
+			if(error != null) {
+				current.addCustomAttribute("StatusCode", error.getStatusCode());
+				current.addCustomAttribute("SubStatusCode", error.getSubStatusCode());
+				current.addCustomAttribute("ErrorClass", CosmosErrorClassifier.classify(error));
+			}
+			double charge = requestCharge;
+			if(charge > 0) {
+				current.addCustomAttribute("RequestCharge", charge);
+				CosmosUtils.recordRequestCharge(operation, charge);
+			}
+			PageStats pageStats = pages;
+			if(pageStats != null) {
+				pageStats.addAttributes(current);
+			}
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+			if(operation != null && operation.getFingerprint() != null) {
+				QueryStatsTable.INSTANCE.record(operation, millis, charge, pageStats != null ? pageStats.getPageCount() : 0, ERROR.equals(outcome));
+			}
+			QueryMetricsCapture capture = queryMetrics;
+			if(capture != null) {
+				capture.end(current, millis);
+			}
+			recordLatencySplit(current, millis);
+			CosmosDiagnostics slowest = diagnostics;
+			if(slowest != null) {
+				DiagnosticsSummary.capture(current, slowest, millis);
+			}
+			FanOutStats ranges = fanOut;
+			if(ranges != null) {
+				ranges.end(current, operation);
+			}
+			DemandTimer timer = demand;
+			if(timer != null) {
+				timer.onTerminated(System.nanoTime());
+				long cosmosMillis = TimeUnit.NANOSECONDS.toMillis(timer.getCosmosNanos());
+				long consumerMillis = TimeUnit.NANOSECONDS.toMillis(timer.getConsumerNanos());
+				current.addCustomAttribute("CosmosWaitMillis", cosmosMillis);
+				current.addCustomAttribute("ConsumerMillis", consumerMillis);
+				if(operation != null) {
+					NewRelic.recordResponseTimeMetric(operation.getCosmosWaitMetric(), cosmosMillis);
+					NewRelic.recordResponseTimeMetric(operation.getConsumerMetric(), consumerMillis);
+				}
+			}
+			if(attempt > 1) {
+				current.addCustomAttribute("Attempt", attempt);
 			}
-			if(attributes != null) {
-				segment.addCustomAttributes(attributes);
+			current.end();
+		}
+		release();
+	}
+	
+	private void expireAssemblyToken() {
+		if(template.assemblyToken == null) {
+			return;
+		}
+		Token token = ASSEMBLY_TOKEN.getAndSet(template, null);
+		if(token != null) {
+			token.expire();
+		}
+	}
+	
+	/*
+	 * Holds nothing that pins the transaction or response, a lost subscriber may keep it reachable.
+	 */
+	private void release() {
+		transaction = null;
+		reaperEntry = null;
+		pages = null;
+		demand = null;
+		queryMetrics = null;
+		fanOut = null;
+		diagnostics = null;
+		exception = null;
+	}
+	
+	/*
+	 * Operations outside of a transaction only feed the background latency histogram and the request charge metrics.
+	 */
+	private void endBackground(String outcome) {
+		if(operation == null) {
+			return;
+		}
+		if(!TIMEOUT.equals(outcome)) {
+			HistogramRegistry.BACKGROUND.record(operation.getBackgroundMetric(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+		}
+		double charge = requestCharge;
+		if(charge > 0) {
+			CosmosUtils.recordRequestCharge(operation, charge);
+		}
+	}
+	
+	private void addAttributes(Segment current) {
+		Object[] pairs = attributes;
+		if(pairs == null) {
+			return;
+		}
+		for(int i = 0; i + 1 < pairs.length; i += 2) {
+			Object key = pairs[i];
+			Object value = pairs[i + 1];
+			if(!(key instanceof String) || ((String)key).isEmpty() || value == null) {
+				continue;
+			}
+			if(value instanceof Number) {
+				current.addCustomAttribute((String)key, (Number)value);
+			} else if(value instanceof Boolean) {
+				current.addCustomAttribute((String)key, ((Boolean)value).booleanValue());
+			} else {
+				current.addCustomAttribute((String)key, value.toString());
 			}
-			segment.end();
-			segment = null;
 		}
-		
 	}
 	
+	/*
+	 * Splits the end to end time into backend time and the remainder.
+	 */
+	private void recordLatencySplit(Segment current, long millis) {
+		double server = serverMillis;
+		long overhead = server >= 0 ? Math.max(0, millis - Math.round(server)) : -1;
+		if(server >= 0) {
+			current.addCustomAttribute("ServerMillis", server);
+			current.addCustomAttribute("OverheadMillis", overhead);
+		}
+		if(operation != null) {
+			NewRelic.recordResponseTimeMetric(operation.getEndToEndMetric(), millis);
+			HistogramRegistry.INSTANCE.record(operation.getEndToEndMetric(), millis);
+			if(server >= 0) {
+				NewRelic.recordResponseTimeMetric(operation.getServerTimeMetric(), Math.round(server));
+				NewRelic.recordResponseTimeMetric(operation.getOverheadMetric(), overhead);
+			}
+		}
+	}
 	
 	@Override
 	public void accept(T t) {
+		CosmosHarvestListener.ensureRegistered();
 		if(segmentName != null && !segmentName.isEmpty()) {
 			if(transaction != null) {
-				segment = transaction.startSegment(segmentName);
+				Segment started = transaction.startSegment(segmentName);
+				startNanos = System.nanoTime();
+				queryMetrics = QueryMetricsCapture.create(operation);
+				if(SEGMENT.compareAndSet(this, null, started)) {
+					watch();
+				} else {
+					started.ignore();
+				}
+			} else if(CosmosUtils.BACKGROUND_ENABLED && operation != null) {
+				startNanos = System.nanoTime();
+				background = true;
+				if(SEGMENT.compareAndSet(this, null, BACKGROUND)) {
+					watch();
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Hands the running operation to the reaper, which ends it if the publisher never terminates.
+	 */
+	private void watch() {
+		SegmentReaper.Entry entry = SegmentReaper.INSTANCE.register(this);
+		if(entry != null) {
+			reaperEntry = entry;
+			if(segment == null) {
+				entry.cancel();
 			}
 		}
 	}
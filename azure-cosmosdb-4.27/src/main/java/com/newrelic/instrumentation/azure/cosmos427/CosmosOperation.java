@@ -0,0 +1,166 @@
+package com.newrelic.instrumentation.azure.cosmos427;
+
+import com.newrelic.api.agent.DatastoreParameters;
+import com.newrelic.api.agent.QueryConverter;
+
+/**
+ * An operation against one collection.
+ */
+public class CosmosOperation {
+
+	private final String collection;
+	private final String operation;
+	private final DatastoreParameters params;
+	private final String query;
+	private final String fingerprint;
+	private final String requestChargeMetric;
+	private final String pageMetric;
+	private final String cosmosWaitMetric;
+	private final String consumerMetric;
+	private final String fanOutMetric;
+	private final String rangeLatencyMetric;
+	private final String rangeRequestsMetric;
+	private final String batchSizeMetric;
+	private final String batchPartitionsMetric;
+	private final String endToEndMetric;
+	private final String serverTimeMetric;
+	private final String overheadMetric;
+	private final String backgroundMetric;
+
+	public CosmosOperation(String collection, String operation) {
+		this(collection, operation, DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(collection).operation(operation).build());
+	}
+
+	public CosmosOperation(String collection, String operation, DatastoreParameters params) {
+		this(collection, operation, params, null, null);
+	}
+
+	private CosmosOperation(String collection, String operation, DatastoreParameters params, String query, String fingerprint) {
+		this.collection = collection;
+		this.operation = operation;
+		this.params = params;
+		this.query = query;
+		this.fingerprint = fingerprint;
+		requestChargeMetric = "Custom/CosmosDB/RequestCharge/" + collection + "/" + operation;
+		pageMetric = "Custom/CosmosDB/Page/" + collection + "/" + operation;
+		cosmosWaitMetric = "Custom/CosmosDB/CosmosWait/" + collection + "/" + operation;
+		consumerMetric = "Custom/CosmosDB/ConsumerTime/" + collection + "/" + operation;
+		fanOutMetric = "Custom/CosmosDB/FanOut/" + collection + "/" + operation;
+		rangeLatencyMetric = "Custom/CosmosDB/RangeLatency/" + collection + "/" + operation;
+		rangeRequestsMetric = "Custom/CosmosDB/RangeRequests/" + collection + "/" + operation;
+		batchSizeMetric = "Custom/CosmosDB/BatchSize/" + collection + "/" + operation;
+		batchPartitionsMetric = "Custom/CosmosDB/BatchPartitions/" + collection + "/" + operation;
+		endToEndMetric = "Custom/CosmosDB/EndToEnd/" + collection + "/" + operation;
+		serverTimeMetric = "Custom/CosmosDB/ServerTime/" + collection + "/" + operation;
+		overheadMetric = "Custom/CosmosDB/Overhead/" + collection + "/" + operation;
+		backgroundMetric = "Custom/CosmosDB/Background/" + collection + "/" + operation;
+	}
+
+	private CosmosOperation(CosmosOperation shared, DatastoreParameters params, String query, String fingerprint) {
+		collection = shared.collection;
+		operation = shared.operation;
+		this.params = params;
+		this.query = query;
+		this.fingerprint = fingerprint;
+		requestChargeMetric = shared.requestChargeMetric;
+		pageMetric = shared.pageMetric;
+		cosmosWaitMetric = shared.cosmosWaitMetric;
+		consumerMetric = shared.consumerMetric;
+		fanOutMetric = shared.fanOutMetric;
+		rangeLatencyMetric = shared.rangeLatencyMetric;
+		rangeRequestsMetric = shared.rangeRequestsMetric;
+		batchSizeMetric = shared.batchSizeMetric;
+		batchPartitionsMetric = shared.batchPartitionsMetric;
+		endToEndMetric = shared.endToEndMetric;
+		serverTimeMetric = shared.serverTimeMetric;
+		overheadMetric = shared.overheadMetric;
+		backgroundMetric = shared.backgroundMetric;
+	}
+
+	/*
+	 * A copy whose parameters carry the query text, reusing the metric names already built for the shared instance.
+	 */
+	public CosmosOperation forQuery(String query, QueryConverter<String> converter, String queryFingerprint) {
+		DatastoreParameters queryParams = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(collection).operation(operation).noInstance().noDatabaseName().slowQuery(query, converter).build();
+		return new CosmosOperation(this, queryParams, query, queryFingerprint);
+	}
+
+	public String getCollection() {
+		return collection;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public DatastoreParameters getParams() {
+		return params;
+	}
+
+	/*
+	 * Query text for query operations, otherwise null.
+	 */
+	public String getQuery() {
+		return query;
+	}
+
+	/*
+	 * Normalized query text for query operations with statistics enabled, otherwise null.
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public String getRequestChargeMetric() {
+		return requestChargeMetric;
+	}
+
+	public String getPageMetric() {
+		return pageMetric;
+	}
+
+	public String getCosmosWaitMetric() {
+		return cosmosWaitMetric;
+	}
+
+	public String getConsumerMetric() {
+		return consumerMetric;
+	}
+
+	public String getFanOutMetric() {
+		return fanOutMetric;
+	}
+
+	public String getRangeLatencyMetric() {
+		return rangeLatencyMetric;
+	}
+
+	public String getRangeRequestsMetric() {
+		return rangeRequestsMetric;
+	}
+
+	public String getBatchSizeMetric() {
+		return batchSizeMetric;
+	}
+
+	public String getBatchPartitionsMetric() {
+		return batchPartitionsMetric;
+	}
+
+	public String getEndToEndMetric() {
+		return endToEndMetric;
+	}
+
+	public String getServerTimeMetric() {
+		return serverTimeMetric;
+	}
+
+	public String getOverheadMetric() {
+		return overheadMetric;
+	}
+
+	public String getBackgroundMetric() {
+		return backgroundMetric;
+	}
+
+}
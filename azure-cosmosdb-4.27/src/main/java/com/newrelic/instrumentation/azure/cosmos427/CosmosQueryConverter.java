@@ -0,0 +1,48 @@
+package com.newrelic.instrumentation.azure.cosmos427;
+
+import com.newrelic.agent.database.SqlObfuscator;
+import com.newrelic.api.agent.QueryConverter;
+
+/**
+ * Shared converter for Cosmos query text.
+ */
+public class CosmosQueryConverter implements QueryConverter<String> {
+
+	public static final CosmosQueryConverter INSTANCE = new CosmosQueryConverter();
+
+	private final BoundedCache<String, String> obfuscated;
+	private volatile SqlObfuscator obfuscator = null;
+
+	private CosmosQueryConverter() {
+		obfuscated = new BoundedCache<String, String>("ObfuscatedQueries", CosmosConfig.getInt(CosmosConfig.OBFUSCATION_CACHE_MAX_SIZE, 500));
+		CosmosHarvestListener.addReporter(obfuscated);
+	}
+
+	@Override
+	public String toRawQueryString(String rawQuery) {
+		return rawQuery;
+	}
+
+	@Override
+	public String toObfuscatedQueryString(String rawQuery) {
+		if(rawQuery == null) {
+			return null;
+		}
+		String result = obfuscated.get(rawQuery);
+		if(result == null) {
+			result = getObfuscator().obfuscateSql(rawQuery);
+			obfuscated.put(rawQuery, result);
+		}
+		return result;
+	}
+
+	private SqlObfuscator getObfuscator() {
+		SqlObfuscator current = obfuscator;
+		if(current == null) {
+			current = SqlObfuscator.getDefaultSqlObfuscator();
+			obfuscator = current;
+		}
+		return current;
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.newrelic.instrumentation.azure.cosmos427;
+
+/**
+ * Classifies Cosmos SQL in a single pass over the text.
+ */
+public class CosmosSqlParser {
+
+	public static final String SELECT = "select";
+	public static final String SELECT_VALUE = "selectValue";
+	public static final String AGGREGATE = "aggregate";
+	public static final String JOIN = "join";
+	public static final String ORDER_BY = "orderBy";
+	public static final String QUERY = "query";
+
+	private static final String[] AGGREGATES = {"COUNT", "SUM", "AVG", "MIN", "MAX"};
+
+	/*
+	 * Aggregates win over joins, joins over ordering, ordering over projection.
+	 */
+	public static String getOperation(String sql) {
+		if(sql == null) {
+			return QUERY;
+		}
+		int length = sql.length();
+		int words = 0;
+		boolean select = false;
+		boolean value = false;
+		boolean join = false;
+		boolean orderBy = false;
+		boolean aggregate = false;
+		String previous = null;
+		int i = 0;
+		while(i < length) {
+			char c = sql.charAt(i);
+			if(c == '\'' || c == '"') {
+				i = skipLiteral(sql, i, c);
+				previous = null;
+				continue;
+			}
+			if(c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+				while(i < length && sql.charAt(i) != '\n') {
+					i++;
+				}
+				continue;
+			}
+			if(!Character.isLetter(c) && c != '_') {
+				i++;
+				continue;
+			}
+			int start = i;
+			while(i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+				i++;
+			}
+			if(start > 0 && sql.charAt(start - 1) == '.') {
+				previous = null;
+				continue;
+			}
+			words++;
+			if(words == 1) {
+				select = matches(sql, start, i, "SELECT");
+				if(!select) {
+					return QUERY;
+				}
+			} else if(words == 2 && matches(sql, start, i, "VALUE")) {
+				value = true;
+			} else if(matches(sql, start, i, "JOIN")) {
+				join = true;
+			} else if(matches(sql, start, i, "BY")) {
+				if("ORDER".equals(previous)) {
+					orderBy = true;
+				} else if("GROUP".equals(previous)) {
+					aggregate = true;
+				}
+			} else if(!aggregate && isAggregate(sql, start, i) && nextIsParenthesis(sql, i)) {
+				aggregate = true;
+			}
+			if(matches(sql, start, i, "ORDER")) {
+				previous = "ORDER";
+			} else if(matches(sql, start, i, "GROUP")) {
+				previous = "GROUP";
+			} else {
+				previous = null;
+			}
+		}
+		if(aggregate) {
+			return AGGREGATE;
+		}
+		if(join) {
+			return JOIN;
+		}
+		if(orderBy) {
+			return ORDER_BY;
+		}
+		if(value) {
+			return SELECT_VALUE;
+		}
+		return select ? SELECT : QUERY;
+	}
+
+	private static int skipLiteral(String sql, int i, char quote) {
+		int length = sql.length();
+		i++;
+		while(i < length) {
+			char c = sql.charAt(i);
+			if(c == '\\') {
+				i += 2;
+				continue;
+			}
+			i++;
+			if(c == quote) {
+				break;
+			}
+		}
+		return i;
+	}
+
+	private static boolean matches(String sql, int start, int end, String keyword) {
+		return end - start == keyword.length() && sql.regionMatches(true, start, keyword, 0, keyword.length());
+	}
+
+	private static boolean isAggregate(String sql, int start, int end) {
+		for(String name : AGGREGATES) {
+			if(matches(sql, start, end, name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean nextIsParenthesis(String sql, int i) {
+		int length = sql.length();
+		while(i < length && Character.isWhitespace(sql.charAt(i))) {
+			i++;
+		}
+		return i < length && sql.charAt(i) == '(';
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.newrelic.instrumentation.azure.cosmos427;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.newrelic.api.agent.NewRelic;
+
+/**
+ * Named histograms that are reported and reset on each harvest.
+ */
+public class HistogramRegistry implements HarvestReporter {
+
+	private static final String DROPPED_METRIC = "Custom/CosmosDB/Histograms/Dropped";
+
+	public static final HistogramRegistry INSTANCE = new HistogramRegistry(CosmosConfig.getInt(CosmosConfig.HISTOGRAMS_MAX_SIZE, 1000), Math.min(Runtime.getRuntime().availableProcessors(), 4));
+	public static final HistogramRegistry BACKGROUND = new HistogramRegistry(CosmosConfig.getInt(CosmosConfig.HISTOGRAMS_MAX_SIZE, 1000), Runtime.getRuntime().availableProcessors());
+
+	private final int maxSize;
+	private final int stripes;
+	private final LongAdder dropped = new LongAdder();
+	private volatile Generation generation;
+
+	HistogramRegistry(int maxSize, int stripes) {
+		this.maxSize = maxSize;
+		this.stripes = Math.min(Math.max(stripes, 1), 16);
+		generation = new Generation(this.stripes);
+		CosmosHarvestListener.addReporter(this);
+	}
+
+	public void record(String name, long value) {
+		Generation current = enter();
+		try {
+			StripedHistogram histogram = current.histograms.get(name);
+			if(histogram == null) {
+				if(current.histograms.size() >= maxSize) {
+					dropped.increment();
+					return;
+				}
+				StripedHistogram created = new StripedHistogram(stripes);
+				histogram = current.histograms.putIfAbsent(name, created);
+				if(histogram == null) {
+					histogram = created;
+				}
+			}
+			histogram.record(value);
+		} finally {
+			current.writers.exit();
+		}
+	}
+
+	private Generation enter() {
+		while(true) {
+			Generation current = generation;
+			current.writers.enter();
+			if(current == generation) {
+				return current;
+			}
+			current.writers.exit();
+		}
+	}
+
+	@Override
+	public void report() {
+		for(Map.Entry<String, Histogram> entry : drain().entrySet()) {
+			report(entry.getKey(), entry.getValue());
+		}
+		long droppedCount = dropped.sumThenReset();
+		if(droppedCount > 0) {
+			NewRelic.incrementCounter(DROPPED_METRIC, (int)Math.min(droppedCount, Integer.MAX_VALUE));
+		}
+	}
+
+	/*
+	 * Swaps in a fresh generation and returns the merged histograms of the previous one.
+	 */
+	Map<String, Histogram> drain() {
+		Generation previous = generation;
+		generation = new Generation(stripes);
+		previous.writers.await();
+		Map<String, Histogram> merged = new HashMap<String, Histogram>();
+		for(Map.Entry<String, StripedHistogram> entry : previous.histograms.entrySet()) {
+			merged.put(entry.getKey(), entry.getValue().merge());
+		}
+		return merged;
+	}
+
+	private void report(String name, Histogram histogram) {
+		long count = histogram.getCount();
+		if(count == 0) {
+			return;
+		}
+		NewRelic.incrementCounter(name + "/count", (int)Math.min(count, Integer.MAX_VALUE));
+		NewRelic.recordMetric(name + "/p50", histogram.getPercentile(50));
+		NewRelic.recordMetric(name + "/p95", histogram.getPercentile(95));
+		NewRelic.recordMetric(name + "/p99", histogram.getPercentile(99));
+		NewRelic.recordMetric(name + "/max", histogram.getMax());
+	}
+
+	private static class Generation {
+
+		private final ConcurrentHashMap<String, StripedHistogram> histograms = new ConcurrentHashMap<String, StripedHistogram>();
+		private final WriterGate writers;
+
+		private Generation(int stripes) {
+			writers = new WriterGate(stripes);
+		}
+	}
+
+}
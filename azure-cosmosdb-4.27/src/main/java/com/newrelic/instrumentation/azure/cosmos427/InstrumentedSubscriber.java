@@ -0,0 +1,181 @@
+package com.newrelic.instrumentation.azure.cosmos427;
+
+import org.reactivestreams.Subscription;
+
+import reactor.core.CoreSubscriber;
+import reactor.core.Fuseable;
+import reactor.core.publisher.Operators;
+import reactor.util.context.Context;
+
+/**
+ * Single subscriber that replaces the doOnSubscribe/doOnTerminate/doOnCancel/doOnError chain.
+ */
+public class InstrumentedSubscriber<T> implements CoreSubscriber<T>, Subscription {
+
+	protected final CoreSubscriber<? super T> actual;
+	protected final CompletionRunnable<Subscription> runnable;
+	protected final ErrorConsumer errorConsumer;
+	protected final boolean paged;
+	protected Subscription s;
+
+	public InstrumentedSubscriber(CoreSubscriber<? super T> actual, CompletionRunnable<Subscription> runnable, ErrorConsumer errorConsumer, boolean paged) {
+		this.actual = actual;
+		this.runnable = runnable;
+		this.errorConsumer = errorConsumer;
+		this.paged = paged;
+	}
+
+	@Override
+	public Context currentContext() {
+		return actual.currentContext();
+	}
+
+	@Override
+	public void onSubscribe(Subscription s) {
+		if(Operators.validate(this.s, s)) {
+			this.s = s;
+			runnable.accept(s);
+			actual.onSubscribe(this);
+		}
+	}
+
+	@Override
+	public void onNext(T t) {
+		if(t == null) {
+			// in ASYNC fusion onNext only signals that items can be polled, the items go through poll()
+			actual.onNext(t);
+			return;
+		}
+		runnable.onResponse(t);
+		actual.onNext(t);
+		if(paged) {
+			runnable.onConsumed();
+		}
+	}
+
+	@Override
+	public void onError(Throwable t) {
+		runnable.onResponse(t);
+		errorConsumer.notice(t, runnable.isBackground());
+		runnable.end(CompletionRunnable.ERROR);
+		try {
+			actual.onError(t);
+		} finally {
+			runnable.detach();
+		}
+	}
+
+	@Override
+	public void onComplete() {
+		runnable.run();
+		try {
+			actual.onComplete();
+		} finally {
+			runnable.detach();
+		}
+	}
+
+	@Override
+	public void request(long n) {
+		if(paged) {
+			runnable.onRequest(n);
+		}
+		s.request(n);
+	}
+
+	@Override
+	public void cancel() {
+		runnable.end(CompletionRunnable.CANCEL);
+		try {
+			s.cancel();
+		} finally {
+			runnable.detach();
+		}
+	}
+
+	/*
+	 * Used when the source is Fuseable, so fusion between the source and the downstream operators is kept.
+	 */
+	public static class FuseableSubscriber<T> extends InstrumentedSubscriber<T> implements Fuseable.QueueSubscription<T> {
+
+		private Fuseable.QueueSubscription<T> qs;
+		private boolean syncFused = false;
+		/*
+		 * A polled item is consumed once the downstream polls again, poll() calls are serialized by the downstream drain loop.
+		 */
+		private boolean pendingConsume = false;
+
+		public FuseableSubscriber(CoreSubscriber<? super T> actual, CompletionRunnable<Subscription> runnable, ErrorConsumer errorConsumer, boolean paged) {
+			super(actual, runnable, errorConsumer, paged);
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if(Operators.validate(this.s, s)) {
+				this.s = s;
+				qs = Operators.as(s);
+				runnable.accept(s);
+				actual.onSubscribe(this);
+			}
+		}
+
+		@Override
+		public int requestFusion(int requestedMode) {
+			if(qs == null || (requestedMode & Fuseable.THREAD_BARRIER) != 0) {
+				return Fuseable.NONE;
+			}
+			int mode = qs.requestFusion(requestedMode);
+			syncFused = mode == Fuseable.SYNC;
+			return mode;
+		}
+
+		@Override
+		public T poll() {
+			if(pendingConsume) {
+				pendingConsume = false;
+				runnable.onConsumed();
+			}
+			T value;
+			try {
+				value = qs.poll();
+			} catch (RuntimeException e) {
+				errorConsumer.notice(e, runnable.isBackground());
+				runnable.end(CompletionRunnable.ERROR);
+				runnable.detach();
+				throw e;
+			}
+			if(value != null) {
+				runnable.onResponse(value);
+				pendingConsume = paged;
+			} else if(syncFused) {
+				runnable.run();
+				runnable.detach();
+			}
+			return value;
+		}
+
+		@Override
+		public int size() {
+			return qs.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return qs.isEmpty();
+		}
+
+		/*
+		 * A fused downstream cancels by clearing the queue, in SYNC mode without calling cancel() at all, so the segment is ended here.
+		 */
+		@Override
+		public void clear() {
+			runnable.end(CompletionRunnable.CANCEL);
+			try {
+				qs.clear();
+			} finally {
+				runnable.detach();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.newrelic.instrumentation.azure.cosmos427;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Histogram split into stripes chosen by thread, so threads recording the same operation rarely touch the same counters.
+ */
+public class StripedHistogram {
+
+	private final AtomicReferenceArray<Histogram> stripes;
+	private final int mask;
+
+	/*
+	 * The number of stripes is rounded up to a power of two.
+	 */
+	public StripedHistogram(int stripeCount) {
+		int size = Integer.highestOneBit(Math.max(stripeCount, 1) * 2 - 1);
+		stripes = new AtomicReferenceArray<Histogram>(size);
+		mask = size - 1;
+	}
+
+	public void record(long value) {
+		int index = (int)(Thread.currentThread().getId() & mask);
+		Histogram stripe = stripes.get(index);
+		if(stripe == null) {
+			Histogram created = new Histogram();
+			stripe = stripes.compareAndSet(index, null, created) ? created : stripes.get(index);
+		}
+		stripe.record(value);
+	}
+
+	public Histogram merge() {
+		if(stripes.length() == 1) {
+			Histogram only = stripes.get(0);
+			return only != null ? only : new Histogram();
+		}
+		Histogram merged = new Histogram();
+		for(int i = 0; i < stripes.length(); i++) {
+			Histogram stripe = stripes.get(i);
+			if(stripe != null) {
+				merged.add(stripe);
+			}
+		}
+		return merged;
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.newrelic.instrumentation.azure.cosmos427;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.azure.cosmos.CosmosException;
+
+public class CosmosErrorClassifierTest {
+
+	private static CosmosException exception(int status, final int subStatus) {
+		return new CosmosException(status, "test") {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public int getSubStatusCode() {
+				return subStatus;
+			}
+		};
+	}
+
+	@Test
+	public void notFound() {
+		assertEquals(CosmosErrorClassifier.NOT_FOUND, CosmosErrorClassifier.classify(exception(404, 0)));
+		assertEquals(CosmosErrorClassifier.NOT_FOUND, CosmosErrorClassifier.classify(exception(404, 1003)));
+		assertEquals(CosmosErrorClassifier.UNAVAILABLE, CosmosErrorClassifier.classify(exception(404, 1002)));
+	}
+
+	@Test
+	public void statuses() {
+		assertEquals(CosmosErrorClassifier.TIMEOUT, CosmosErrorClassifier.classify(exception(408, 0)));
+		assertEquals(CosmosErrorClassifier.CONFLICT, CosmosErrorClassifier.classify(exception(409, 0)));
+		assertEquals(CosmosErrorClassifier.GONE, CosmosErrorClassifier.classify(exception(410, 1002)));
+		assertEquals(CosmosErrorClassifier.PRECONDITION_FAILED, CosmosErrorClassifier.classify(exception(412, 0)));
+		assertEquals(CosmosErrorClassifier.THROTTLED, CosmosErrorClassifier.classify(exception(429, 3200)));
+		assertEquals(CosmosErrorClassifier.RETRY_WITH, CosmosErrorClassifier.classify(exception(449, 0)));
+		assertEquals(CosmosErrorClassifier.UNAVAILABLE, CosmosErrorClassifier.classify(exception(503, 0)));
+		assertEquals(CosmosErrorClassifier.SERVER_ERROR, CosmosErrorClassifier.classify(exception(500, 0)));
+		assertEquals(CosmosErrorClassifier.CLIENT_ERROR, CosmosErrorClassifier.classify(exception(400, 0)));
+		assertEquals(CosmosErrorClassifier.OTHER, CosmosErrorClassifier.classify(exception(0, 0)));
+	}
+
+	@Test
+	public void expected() {
+		assertTrue(CosmosErrorClassifier.isExpected(CosmosErrorClassifier.THROTTLED));
+		assertTrue(CosmosErrorClassifier.isExpected(CosmosErrorClassifier.NOT_FOUND));
+		assertFalse(CosmosErrorClassifier.isExpected(CosmosErrorClassifier.UNAVAILABLE));
+		assertFalse(CosmosErrorClassifier.isExpected(CosmosErrorClassifier.SERVER_ERROR));
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.newrelic.instrumentation.azure.cosmos428;
+
+import java.time.Duration;
+
+import com.azure.cosmos.CosmosException;
+import com.newrelic.api.agent.NewRelic;
+
+/**
+ * Classifies a CosmosException by status and sub-status code.
+ */
+public class CosmosErrorClassifier {
+
+	public static final String NOT_FOUND = "notFound";
+	public static final String TIMEOUT = "timeout";
+	public static final String CONFLICT = "conflict";
+	public static final String GONE = "gone";
+	public static final String PRECONDITION_FAILED = "preconditionFailed";
+	public static final String THROTTLED = "throttled";
+	public static final String RETRY_WITH = "retryWith";
+	public static final String UNAVAILABLE = "unavailable";
+	public static final String CLIENT_ERROR = "clientError";
+	public static final String SERVER_ERROR = "serverError";
+	public static final String OTHER = "other";
+
+	private static final boolean NOTICE_EXPECTED = CosmosConfig.getBoolean(CosmosConfig.ERRORS_NOTICE_EXPECTED, false);
+	private static final boolean NOT_FOUND_EXPECTED = CosmosConfig.getBoolean(CosmosConfig.ERRORS_NOT_FOUND_EXPECTED, true);
+	private static final int READ_SESSION_NOT_AVAILABLE = 1002;
+
+	public static String classify(CosmosException exception) {
+		int status = exception.getStatusCode();
+		switch(status) {
+		case 404:
+			// a session read no replica could serve yet, not a missing item
+			return exception.getSubStatusCode() == READ_SESSION_NOT_AVAILABLE ? UNAVAILABLE : NOT_FOUND;
+		case 408:
+			return TIMEOUT;
+		case 409:
+			return CONFLICT;
+		case 410:
+			return GONE;
+		case 412:
+			return PRECONDITION_FAILED;
+		case 429:
+			return THROTTLED;
+		case 449:
+			return RETRY_WITH;
+		case 503:
+			return UNAVAILABLE;
+		default:
+			if(status >= 500) {
+				return SERVER_ERROR;
+			}
+			if(status >= 400) {
+				return CLIENT_ERROR;
+			}
+			return OTHER;
+		}
+	}
+
+	public static boolean isExpected(String errorClass) {
+		if(NOTICE_EXPECTED) {
+			return false;
+		}
+		return THROTTLED.equals(errorClass) || CONFLICT.equals(errorClass) || PRECONDITION_FAILED.equals(errorClass) || RETRY_WITH.equals(errorClass) || (NOT_FOUND_EXPECTED && NOT_FOUND.equals(errorClass));
+	}
+
+	public static void record(CosmosException exception, String errorClass, CosmosOperation operation) {
+		String collection = operation != null ? operation.getCollection() : null;
+		if(collection == null || collection.isEmpty()) {
+			collection = "unknown";
+		}
+		NewRelic.incrementCounter("Custom/CosmosDB/Errors/all/" + errorClass);
+		NewRelic.incrementCounter("Custom/CosmosDB/Errors/" + collection + "/" + errorClass);
+		if(THROTTLED.equals(errorClass)) {
+			Duration retryAfter = exception.getRetryAfterDuration();
+			if(retryAfter != null) {
+				HistogramRegistry.INSTANCE.record("Custom/CosmosDB/RetryAfter/" + collection, retryAfter.toMillis());
+			}
+		}
+	}
+
+}
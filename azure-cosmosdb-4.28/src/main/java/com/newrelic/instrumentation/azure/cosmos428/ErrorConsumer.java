@@ -4,6 +4,7 @@ import java.util.function.Consumer;
 
 import org.reactivestreams.Subscription;
 
+import com.azure.cosmos.CosmosException;
 import com.newrelic.api.agent.NewRelic;
 
 public class ErrorConsumer implements Consumer<Throwable> {
@@ -16,9 +17,31 @@ public class ErrorConsumer implements Consumer<Throwable> {
 
 	@Override
 	public void accept(Throwable t) {
-		NewRelic.noticeError(t);
+		notice(t);
 		if(runnable != null) {
-			runnable.run();
+			runnable.end(CompletionRunnable.ERROR);
+		}
+	}
+	
+	public void notice(Throwable t) {
+		notice(t, false);
+	}
+	
+	/*
+	 * Errors of operations outside of a transaction are classified and counted but never noticed.
+	 */
+	public void notice(Throwable t, boolean background) {
+		CosmosOperation operation = runnable != null ? runnable.getOperation() : null;
+		if(t instanceof CosmosException) {
+			CosmosException exception = (CosmosException)t;
+			String errorClass = CosmosErrorClassifier.classify(exception);
+			CosmosErrorClassifier.record(exception, errorClass, operation);
+			if(CosmosErrorClassifier.isExpected(errorClass)) {
+				return;
+			}
+		}
+		if(!background && t != null && ErrorLimiter.INSTANCE.tryNotice(t, operation)) {
+			NewRelic.noticeError(t);
 		}
 	}
 
@@ -0,0 +1,211 @@
+package com.newrelic.instrumentation.azure.cosmos428;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import com.newrelic.api.agent.NewRelic;
+
+/**
+ * Ends segments that never terminate and expires tokens of publishers never subscribed to.
+ */
+public class SegmentReaper {
+
+	public static final SegmentReaper INSTANCE = create(CosmosConfig.getBoolean(CosmosConfig.REAPER_ENABLED, true), CosmosConfig.getInt(CosmosConfig.REAPER_DEADLINE_SECONDS, 300), CosmosConfig.getInt(CosmosConfig.REAPER_TICK_MILLIS, 1000));
+
+	private final boolean enabled;
+	private final long tickNanos;
+	private final long deadlineNanos;
+	private final int deadlineTicks;
+	private final Bucket[][] wheel;
+	private final AtomicBoolean started = new AtomicBoolean(false);
+	private volatile long tick = 0;
+
+	private static SegmentReaper create(boolean enabled, int deadlineSeconds, int tickMillis) {
+		return new SegmentReaper(enabled && deadlineSeconds > 0, TimeUnit.SECONDS.toNanos(Math.max(deadlineSeconds, 1)), TimeUnit.MILLISECONDS.toNanos(Math.max(tickMillis, 10)));
+	}
+
+	SegmentReaper(boolean enabled, long deadlineNanos, long tickNanos) {
+		this.enabled = enabled;
+		this.tickNanos = tickNanos;
+		this.deadlineNanos = deadlineNanos;
+		deadlineTicks = (int)Math.max(1, (deadlineNanos + tickNanos - 1) / tickNanos);
+		int stripes = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+		wheel = new Bucket[enabled ? deadlineTicks + 1 : 0][stripes];
+		for(int i = 0; i < wheel.length; i++) {
+			for(int j = 0; j < stripes; j++) {
+				wheel[i][j] = new Bucket();
+			}
+		}
+	}
+
+	/*
+	 * Returns null when the reaper is disabled, otherwise an entry to cancel when the operation ends.
+	 */
+	public Entry register(CompletionRunnable<?> runnable) {
+		if(!enabled) {
+			return null;
+		}
+		start();
+		return register(runnable, System.nanoTime());
+	}
+
+	Entry register(CompletionRunnable<?> runnable, long now) {
+		if(!enabled) {
+			return null;
+		}
+		Entry entry = new Entry(runnable, now + deadlineNanos);
+		getBucket(tick + deadlineTicks).add(entry);
+		return entry;
+	}
+
+	private Bucket getBucket(long slot) {
+		Bucket[] stripes = wheel[(int)(slot % wheel.length)];
+		return stripes[(int)(Thread.currentThread().getId() % stripes.length)];
+	}
+
+	private void start() {
+		if(!started.get() && started.compareAndSet(false, true)) {
+			ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "NewRelic-CosmosDB-Reaper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					advance(System.nanoTime());
+				}
+			}, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	void advance(long now) {
+		try {
+			long next = tick + 1;
+			tick = next;
+			for(Bucket bucket : wheel[(int)(next % wheel.length)]) {
+				Entry entry = bucket.drain();
+				while(entry != null) {
+					// drained entries are unlinked from any bucket, nothing but this thread touches their links
+					Entry following = entry.next;
+					entry.prev = null;
+					entry.next = null;
+					CompletionRunnable<?> runnable = entry.runnable;
+					if(runnable != null) {
+						if(entry.deadline - now > 0) {
+							// registered just as the tick moved on, check again on the next tick
+							getBucket(next + 1).add(entry);
+						} else {
+							entry.runnable = null;
+							runnable.timeout();
+						}
+					}
+					entry = following;
+				}
+			}
+		} catch (Exception e) {
+			NewRelic.getAgent().getLogger().log(Level.FINE, e, "Failed to time out abandoned CosmosDB segments");
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for(Bucket[] stripes : wheel) {
+			for(Bucket bucket : stripes) {
+				size += bucket.size();
+			}
+		}
+		return size;
+	}
+
+	public static class Entry {
+
+		private volatile CompletionRunnable<?> runnable;
+		private final long deadline;
+		// links and bucket are guarded by the lock of the bucket the entry is in
+		private Entry prev = null;
+		private Entry next = null;
+		private volatile Bucket bucket = null;
+
+		private Entry(CompletionRunnable<?> runnable, long deadline) {
+			this.runnable = runnable;
+			this.deadline = deadline;
+		}
+
+		public void cancel() {
+			runnable = null;
+			Bucket current = bucket;
+			// the reaper may move the entry to the next slot meanwhile, follow it there
+			while(current != null && !current.remove(this)) {
+				current = bucket;
+			}
+		}
+	}
+
+	private static class Bucket {
+
+		private final Entry head = new Entry(null, 0);
+		private int size = 0;
+
+		private Bucket() {
+			head.prev = head;
+			head.next = head;
+		}
+
+		synchronized void add(Entry entry) {
+			Entry last = head.prev;
+			entry.prev = last;
+			entry.next = head;
+			last.next = entry;
+			head.prev = entry;
+			entry.bucket = this;
+			size++;
+		}
+
+		/*
+		 * False when the entry is no longer in this bucket.
+		 */
+		synchronized boolean remove(Entry entry) {
+			if(entry.bucket != this) {
+				return false;
+			}
+			entry.prev.next = entry.next;
+			entry.next.prev = entry.prev;
+			entry.prev = null;
+			entry.next = null;
+			entry.bucket = null;
+			size--;
+			return true;
+		}
+
+		/*
+		 * Unlinks all entries and returns the first, chained through next and ending with null.
+		 */
+		synchronized Entry drain() {
+			if(size == 0) {
+				return null;
+			}
+			Entry first = head.next;
+			head.prev.next = null;
+			for(Entry entry = first; entry != null; entry = entry.next) {
+				entry.bucket = null;
+			}
+			head.prev = head;
+			head.next = head;
+			size = 0;
+			return first;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+	}
+
+}
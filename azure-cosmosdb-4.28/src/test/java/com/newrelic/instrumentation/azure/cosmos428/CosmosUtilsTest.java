@@ -0,0 +1,45 @@
+package com.newrelic.instrumentation.azure.cosmos428;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.azure.cosmos.implementation.apachecommons.lang.tuple.Pair;
+
+public class CosmosUtilsTest {
+
+	/*
+	 * Shaped like the CosmosItemIdentity of later releases.
+	 */
+	public static class ItemIdentity {
+
+		private final String partitionKey;
+
+		public ItemIdentity(String partitionKey) {
+			this.partitionKey = partitionKey;
+		}
+
+		public String getPartitionKey() {
+			return partitionKey;
+		}
+	}
+
+	@Test
+	public void distinctPartitionKeysOfPairs() {
+		assertEquals(2, CosmosUtils.getDistinctPartitionKeys(Arrays.asList(Pair.of("1", "a"), Pair.of("2", "b"), Pair.of("3", "a"))));
+	}
+
+	@Test
+	public void distinctPartitionKeysOfIdentities() {
+		assertEquals(2, CosmosUtils.getDistinctPartitionKeys(Arrays.asList(new ItemIdentity("a"), new ItemIdentity("b"), new ItemIdentity("b"))));
+	}
+
+	@Test
+	public void distinctPartitionKeysOfNone() {
+		assertEquals(0, CosmosUtils.getDistinctPartitionKeys(Collections.emptyList()));
+	}
+
+}
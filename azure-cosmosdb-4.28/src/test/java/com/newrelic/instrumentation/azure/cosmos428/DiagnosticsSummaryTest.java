@@ -0,0 +1,90 @@
+package com.newrelic.instrumentation.azure.cosmos428;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DiagnosticsSummaryTest {
+
+	private static final double DELTA = 1e-9;
+
+	/*
+	 * diagnostics.json is the rendering of a point read in the format of the azure-cosmos release this module is built
+	 * with: a request timeout in one region, retried in a second region.
+	 */
+	@Test
+	public void fixture() throws IOException {
+		Map<String, Object> attributes = DiagnosticsSummary.parse(readFixture(), true);
+		assertEquals("west us 2,east us", attributes.get("Diagnostics.RegionsContacted"));
+		assertEquals(2, attributes.get("Diagnostics.RegionCount"));
+		assertEquals(1L, attributes.get("Diagnostics.RetryCount"));
+		assertEquals(0.15, (Double)attributes.get("Diagnostics.QueuedMillis"), DELTA);
+		assertEquals(2.0, (Double)attributes.get("Diagnostics.ConnectionAcquisitionMillis"), DELTA);
+		assertEquals(0.08, (Double)attributes.get("Diagnostics.PipelinedMillis"), DELTA);
+		assertEquals(1200.0, (Double)attributes.get("Diagnostics.TransitMillis"), DELTA);
+		assertEquals(0.5, (Double)attributes.get("Diagnostics.ReceivedMillis"), DELTA);
+	}
+
+	@Test
+	public void regionsFromAccessor() throws IOException {
+		Map<String, Object> attributes = DiagnosticsSummary.parse(readFixture(), false);
+		assertFalse(attributes.containsKey("Diagnostics.RegionsContacted"));
+		DiagnosticsSummary.addRegions(attributes, Arrays.asList("West US 2", "East US"));
+		assertEquals("West US 2,East US", attributes.get("Diagnostics.RegionsContacted"));
+		assertEquals(2, attributes.get("Diagnostics.RegionCount"));
+	}
+
+	@Test
+	public void noRegions() {
+		Map<String, Object> attributes = DiagnosticsSummary.parse("{\"regionsContacted\":[],\"retryContext\":{\"retryCount\":0}}", true);
+		assertEquals("", attributes.get("Diagnostics.RegionsContacted"));
+		assertEquals(0, attributes.get("Diagnostics.RegionCount"));
+		attributes = new HashMap<String, Object>();
+		DiagnosticsSummary.addRegions(attributes, Collections.emptySet());
+		assertEquals(0, attributes.get("Diagnostics.RegionCount"));
+	}
+
+	@Test
+	public void durationOfOtherEvent() {
+		Map<String, Object> attributes = DiagnosticsSummary.parse("[{\"eventName\":\"queued\",\"startTimeUTC\":null},{\"eventName\":\"created\",\"durationInMicroSec\":500}]", true);
+		assertEquals(0.0, (Double)attributes.get("Diagnostics.QueuedMillis"), DELTA);
+	}
+
+	@Test
+	public void truncated() {
+		Map<String, Object> attributes = DiagnosticsSummary.parse("{\"regionsContacted\":[\"west us 2\",\"eas", true);
+		assertFalse(attributes.containsKey("Diagnostics.RegionsContacted"));
+		attributes = DiagnosticsSummary.parse("{\"transportRequestTimeline\":[{\"eventName\":\"transitTime\",\"durationInMicroSec\":", true);
+		assertEquals(0.0, (Double)attributes.get("Diagnostics.TransitMillis"), DELTA);
+		attributes = DiagnosticsSummary.parse("{\"transportRequestTimeline\":[{\"eventName\":\"trans", true);
+		assertEquals(0L, attributes.get("Diagnostics.RetryCount"));
+	}
+
+	private static String readFixture() throws IOException {
+		InputStream in = DiagnosticsSummaryTest.class.getResourceAsStream("diagnostics.json");
+		assertNotNull(in);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.newrelic.instrumentation.azure.cosmos428;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class HistogramRegistryTest {
+
+	@Test
+	public void drainResets() {
+		HistogramRegistry registry = new HistogramRegistry(10, 2);
+		registry.record("a", 10);
+		registry.record("a", 30);
+		registry.record("b", 5);
+		Map<String, Histogram> drained = registry.drain();
+		assertEquals(2, drained.size());
+		assertEquals(2L, drained.get("a").getCount());
+		assertEquals(40L, drained.get("a").getSum());
+		assertEquals(1L, drained.get("b").getCount());
+		assertTrue(registry.drain().isEmpty());
+	}
+
+	@Test
+	public void boundedPerHarvest() {
+		HistogramRegistry registry = new HistogramRegistry(2, 1);
+		registry.record("a", 1);
+		registry.record("b", 1);
+		registry.record("c", 1);
+		Map<String, Histogram> drained = registry.drain();
+		assertEquals(2, drained.size());
+		assertNull(drained.get("c"));
+		registry.record("c", 1);
+		assertEquals(1L, registry.drain().get("c").getCount());
+	}
+
+	@Test
+	public void concurrentDrainLosesNothing() throws InterruptedException {
+		final HistogramRegistry registry = new HistogramRegistry(10, 4);
+		final CountDownLatch done = new CountDownLatch(4);
+		for(int t = 0; t < 4; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i = 0; i < 100000; i++) {
+						registry.record("a", 1);
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		long count = 0;
+		while(done.getCount() > 0) {
+			count += count(registry.drain());
+		}
+		count += count(registry.drain());
+		assertEquals(400000L, count);
+	}
+
+	private static long count(Map<String, Histogram> drained) {
+		Histogram histogram = drained.get("a");
+		return histogram != null ? histogram.getCount() : 0;
+	}
+
+}
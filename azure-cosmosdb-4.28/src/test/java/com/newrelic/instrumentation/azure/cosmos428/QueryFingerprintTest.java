@@ -0,0 +1,54 @@
+package com.newrelic.instrumentation.azure.cosmos428;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class QueryFingerprintTest {
+
+	@Test
+	public void literals() {
+		assertEquals("SELECT * FROM c WHERE c.id = ? AND c.n = ? AND c.f = ?", QueryFingerprint.normalize("SELECT * FROM c WHERE c.id = 'a1' AND c.n = 42 AND c.f = 1.5e3"));
+		assertEquals("SELECT * FROM c WHERE c.active = ? AND c.deleted = ? AND c.x = ?", QueryFingerprint.normalize("SELECT * FROM c WHERE c.active = true AND c.deleted = FALSE AND c.x = null"));
+		assertEquals("SELECT * FROM c WHERE c.n > ?", QueryFingerprint.normalize("SELECT * FROM c WHERE c.n > -5"));
+		assertEquals("SELECT * FROM c WHERE c.s = ?", QueryFingerprint.normalize("SELECT * FROM c WHERE c.s = 'it\\'s'"));
+	}
+
+	@Test
+	public void sameShapeSameFingerprint() {
+		assertEquals(QueryFingerprint.normalize("SELECT * FROM c WHERE c.id = 'a'"), QueryFingerprint.normalize("SELECT  *\n FROM c\tWHERE c.id = \"b\""));
+	}
+
+	@Test
+	public void inLists() {
+		assertEquals("SELECT * FROM c WHERE c.id IN (?)", QueryFingerprint.normalize("SELECT * FROM c WHERE c.id IN ('a', 'b', 'c')"));
+		assertEquals("SELECT * FROM c WHERE c.id in (?) AND c.n = ?", QueryFingerprint.normalize("SELECT * FROM c WHERE c.id in (1,2,3) AND c.n = 4"));
+		assertEquals("SELECT * FROM c WHERE c.id IN (?)", QueryFingerprint.normalize("SELECT * FROM c WHERE c.id IN ('a)', 'b')"));
+	}
+
+	@Test
+	public void keepsShape() {
+		assertEquals("SELECT * FROM c WHERE c.tenant = @tenant", QueryFingerprint.normalize("SELECT * FROM c WHERE c.tenant = @tenant"));
+		assertEquals("SELECT c.field1, c.true FROM c", QueryFingerprint.normalize("SELECT c.field1, c.true FROM c"));
+		assertEquals("SELECT VALUE COUNT(?) FROM c", QueryFingerprint.normalize("SELECT VALUE COUNT(1) FROM c"));
+		assertEquals("SELECT c.id FROM c JOIN t IN c.tags WHERE t.name = ?", QueryFingerprint.normalize("SELECT c.id FROM c JOIN t IN c.tags WHERE t.name = 'x'"));
+	}
+
+	@Test
+	public void quotedIdentifiers() {
+		assertEquals("SELECT c[\"order\"] FROM c WHERE c['tenant'] = ?", QueryFingerprint.normalize("SELECT c[\"order\"] FROM c WHERE c['tenant'] = 'x'"));
+	}
+
+	@Test
+	public void comments() {
+		assertEquals("SELECT * FROM c WHERE c.id = ?", QueryFingerprint.normalize("-- tenant 42\nSELECT * FROM c WHERE c.id = 'a' -- lookup"));
+		assertEquals("SELECT * FROM c WHERE c.id = ?", QueryFingerprint.normalize("SELECT * FROM c -- 'x'\n  WHERE c.id = 'a'"));
+	}
+
+	@Test
+	public void nullQuery() {
+		assertNull(QueryFingerprint.normalize(null));
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.newrelic.instrumentation.azure.cosmos428;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	private static final long START = 1000;
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void burstUpToTheRate() {
+		RateLimiter limiter = new RateLimiter(60, START);
+		for(int i = 0; i < 60; i++) {
+			assertTrue("permit " + i, limiter.tryAcquire(START));
+		}
+		assertFalse(limiter.tryAcquire(START));
+	}
+
+	@Test
+	public void refillsOnePermitPerInterval() {
+		RateLimiter limiter = new RateLimiter(60, START);
+		for(int i = 0; i < 60; i++) {
+			limiter.tryAcquire(START);
+		}
+		assertFalse(limiter.tryAcquire(START + SECOND - 1));
+		assertTrue(limiter.tryAcquire(START + SECOND));
+		assertFalse(limiter.tryAcquire(START + SECOND));
+	}
+
+	@Test
+	public void idleOnceRefilled() {
+		RateLimiter limiter = new RateLimiter(60, START);
+		assertTrue(limiter.isIdle(START));
+		limiter.tryAcquire(START);
+		assertFalse(limiter.isIdle(START));
+		assertTrue(limiter.isIdle(START + SECOND));
+	}
+
+	@Test
+	public void doesNotSaveUpPermits() {
+		RateLimiter limiter = new RateLimiter(2, START);
+		long later = START + TimeUnit.HOURS.toNanos(1);
+		assertTrue(limiter.tryAcquire(later));
+		assertTrue(limiter.tryAcquire(later));
+		assertFalse(limiter.tryAcquire(later));
+	}
+
+	@Test
+	public void zeroRateNeverPermits() {
+		RateLimiter limiter = new RateLimiter(0, START);
+		assertFalse(limiter.tryAcquire(START));
+		assertFalse(limiter.tryAcquire(START + TimeUnit.HOURS.toNanos(1)));
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.newrelic.instrumentation.azure.cosmos428;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+
+public class SegmentReaperTest {
+
+	private static final long TICK = 1000000L;
+
+	private static CompletionRunnable<Subscription> start() {
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("SegmentReaperTest/readItem", CosmosUtils.getOperation("reaper", "readItem"), null);
+		runnable.accept(null);
+		return runnable;
+	}
+
+	@Test
+	public void timesOutAtDeadline() {
+		SegmentReaper reaper = new SegmentReaper(true, 3 * TICK, TICK);
+		CompletionRunnable<Subscription> runnable = start();
+		reaper.register(runnable, 0);
+		assertEquals(1, reaper.size());
+		reaper.advance(TICK);
+		reaper.advance(2 * TICK);
+		assertTrue(runnable.isRunning());
+		reaper.advance(3 * TICK);
+		assertFalse(runnable.isRunning());
+		assertEquals(0, reaper.size());
+	}
+
+	@Test
+	public void cancelUnlinks() {
+		SegmentReaper reaper = new SegmentReaper(true, 3 * TICK, TICK);
+		List<SegmentReaper.Entry> entries = new ArrayList<SegmentReaper.Entry>();
+		for(int i = 0; i < 1000; i++) {
+			entries.add(reaper.register(start(), 0));
+		}
+		assertEquals(1000, reaper.size());
+		for(int i = 0; i < entries.size(); i += 2) {
+			entries.get(i).cancel();
+		}
+		assertEquals(500, reaper.size());
+		for(int i = 1; i < entries.size(); i += 2) {
+			entries.get(i).cancel();
+		}
+		assertEquals(0, reaper.size());
+	}
+
+	@Test
+	public void cancelledNotEnded() {
+		SegmentReaper reaper = new SegmentReaper(true, 2 * TICK, TICK);
+		CompletionRunnable<Subscription> runnable = start();
+		reaper.register(runnable, 0).cancel();
+		reaper.advance(TICK);
+		reaper.advance(2 * TICK);
+		reaper.advance(3 * TICK);
+		assertTrue(runnable.isRunning());
+		runnable.end(CompletionRunnable.SUCCESS);
+	}
+
+	@Test
+	public void lateRegistrationMovesOn() {
+		SegmentReaper reaper = new SegmentReaper(true, 3 * TICK, TICK);
+		CompletionRunnable<Subscription> runnable = start();
+		SegmentReaper.Entry entry = reaper.register(runnable, TICK / 2);
+		reaper.advance(TICK);
+		reaper.advance(2 * TICK);
+		reaper.advance(3 * TICK);
+		assertTrue(runnable.isRunning());
+		assertEquals(1, reaper.size());
+		reaper.advance(4 * TICK);
+		assertFalse(runnable.isRunning());
+		assertEquals(0, reaper.size());
+		entry.cancel();
+		assertEquals(0, reaper.size());
+	}
+
+	@Test
+	public void concurrentRegisterAndCancel() throws InterruptedException {
+		final SegmentReaper reaper = new SegmentReaper(true, 3 * TICK, TICK);
+		final CompletionRunnable<Subscription> runnable = start();
+		final CountDownLatch done = new CountDownLatch(4);
+		for(int t = 0; t < 4; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i = 0; i < 10000; i++) {
+						reaper.register(runnable, 0).cancel();
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		done.await();
+		assertEquals(0, reaper.size());
+		runnable.end(CompletionRunnable.SUCCESS);
+	}
+
+	@Test
+	public void disabled() {
+		SegmentReaper reaper = new SegmentReaper(false, 3 * TICK, TICK);
+		assertNull(reaper.register(start()));
+		assertEquals(0, reaper.size());
+	}
+
+}
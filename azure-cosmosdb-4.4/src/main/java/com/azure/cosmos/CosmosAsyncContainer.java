@@ -4,11 +4,11 @@ import org.reactivestreams.Subscription;
 
 import com.azure.cosmos.models.CosmosItemRequestOptions;
 import com.azure.cosmos.models.CosmosItemResponse;
-import com.newrelic.api.agent.DatastoreParameters;
-import com.newrelic.api.agent.NewRelic;
+import com.newrelic.api.agent.Transaction;
 import com.newrelic.api.agent.weaver.Weave;
 import com.newrelic.api.agent.weaver.Weaver;
 import com.newrelic.instrumentation.azure.cosmos44.CompletionRunnable;
+import com.newrelic.instrumentation.azure.cosmos44.CosmosOperation;
 import com.newrelic.instrumentation.azure.cosmos44.CosmosUtils;
 import com.newrelic.instrumentation.azure.cosmos44.ErrorConsumer;
 
@@ -22,17 +22,21 @@ public abstract class CosmosAsyncContainer {
 	abstract String getLink();
 	
 	public <T> Mono<CosmosItemResponse<Object>> deleteItem(T item, CosmosItemRequestOptions options) {
-		
 		Mono<CosmosItemResponse<Object>> result = Weaver.callOriginal();
+		Transaction transaction = CosmosUtils.getTransaction();
+		if(!CosmosUtils.isInstrumented(transaction)) {
+			return result;
+		}
+		
 		String collectionName = CosmosUtils.getIDFromLink(getLink());
 		if(collectionName == null || collectionName.isEmpty()) {
 			collectionName = "";
 		}
 		
-		DatastoreParameters params = DatastoreParameters.product(CosmosUtils.COSMOSDB).collection(collectionName).operation("deleteItem").build();
-		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("CosmosAsyncContainer/deleteItem", params, NewRelic.getAgent().getTransaction());
+		CosmosOperation operation = CosmosUtils.getOperation(collectionName, "deleteItem");
+		CompletionRunnable<Subscription> runnable = new CompletionRunnable<Subscription>("CosmosAsyncContainer/deleteItem", operation, transaction);
 		ErrorConsumer errorConsumer = new ErrorConsumer(runnable);
-		return result.doOnSubscribe(runnable).doOnTerminate(runnable).doOnCancel(runnable).doOnError(errorConsumer);
+		return CosmosUtils.instrument(result, runnable, errorConsumer);
 	}
 
 }
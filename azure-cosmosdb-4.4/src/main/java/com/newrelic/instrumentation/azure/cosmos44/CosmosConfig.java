@@ -0,0 +1,70 @@
+package com.newrelic.instrumentation.azure.cosmos44;
+
+import com.newrelic.api.agent.Config;
+import com.newrelic.api.agent.NewRelic;
+
+/**
+ * Settings under cosmosdb in newrelic.yml, or system properties -Dnewrelic.config.cosmosdb.*
+ */
+public class CosmosConfig {
+
+	private static final String PREFIX = "cosmosdb.";
+
+	public static final String STATEMENT_CACHE_ENABLED = "statement_cache.enabled";
+	public static final String STATEMENT_CACHE_MAX_SIZE = "statement_cache.max_size";
+	public static final String OBFUSCATION_CACHE_MAX_SIZE = "obfuscation_cache.max_size";
+	public static final String LINK_CACHE_MAX_SIZE = "link_cache.max_size";
+	public static final String OPERATION_CACHE_MAX_SIZE = "operation_cache.max_size";
+	public static final String QUERY_STATS_ENABLED = "query_stats.enabled";
+	public static final String QUERY_STATS_MAX_SIZE = "query_stats.max_size";
+	public static final String QUERY_STATS_TOP_N = "query_stats.top_n";
+	public static final String FINGERPRINT_CACHE_MAX_SIZE = "fingerprint_cache.max_size";
+	public static final String QUERY_METRICS_ENABLED = "query_metrics.enabled";
+	public static final String QUERY_METRICS_THRESHOLD_MS = "query_metrics.threshold_ms";
+	public static final String QUERY_METRICS_MAX_SIZE = "query_metrics.max_size";
+	public static final String HISTOGRAMS_MAX_SIZE = "histograms.max_size";
+	public static final String BACKGROUND_ENABLED = "background.enabled";
+	public static final String CONTEXT_TOKEN_ENABLED = "context_token.enabled";
+	public static final String DIAGNOSTICS_ENABLED = "diagnostics.enabled";
+	public static final String DIAGNOSTICS_THRESHOLD_MS = "diagnostics.threshold_ms";
+	public static final String DIAGNOSTICS_MAX_PER_MINUTE = "diagnostics.max_per_minute";
+	public static final String ERRORS_NOTICE_EXPECTED = "errors.notice_expected";
+	public static final String ERRORS_NOT_FOUND_EXPECTED = "errors.not_found_expected";
+	public static final String ERRORS_NOTICE_PER_MINUTE = "errors.notice_per_minute";
+	public static final String ERRORS_MAX_KEYS = "errors.max_keys";
+	public static final String REAPER_ENABLED = "reaper.enabled";
+	public static final String REAPER_DEADLINE_SECONDS = "reaper.deadline_seconds";
+	public static final String REAPER_TICK_MILLIS = "reaper.tick_millis";
+
+	private static Object getValue(String key) {
+		Config config = NewRelic.getAgent().getConfig();
+		return config != null ? config.getValue(PREFIX + key) : null;
+	}
+
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		Object value = getValue(key);
+		if(value instanceof Boolean) {
+			return (Boolean)value;
+		}
+		if(value instanceof String) {
+			return Boolean.parseBoolean(((String)value).trim());
+		}
+		return defaultValue;
+	}
+
+	public static int getInt(String key, int defaultValue) {
+		Object value = getValue(key);
+		if(value instanceof Number) {
+			return ((Number)value).intValue();
+		}
+		if(value instanceof String) {
+			try {
+				return Integer.parseInt(((String)value).trim());
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
+	}
+
+}
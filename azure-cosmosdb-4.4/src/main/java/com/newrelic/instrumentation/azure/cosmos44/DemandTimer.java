@@ -0,0 +1,100 @@
+package com.newrelic.instrumentation.azure.cosmos44;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import reactor.core.publisher.Operators;
+
+/**
+ * Splits a backpressured subscription into time waiting for pages and time spent on them.
+ */
+public class DemandTimer {
+
+	private static final int IDLE = 0;
+	private static final int WAITING = 1;
+	private static final int CONSUMING = 2;
+	private static final int HOLD = 3;
+	private static final int DONE = 4;
+
+	private final AtomicLong outstanding = new AtomicLong(0);
+	private final AtomicInteger phase = new AtomicInteger(IDLE);
+	/*
+	 * Phase start times, each written before the transition into its phase is published.
+	 */
+	private volatile long waitStartNanos = 0;
+	private volatile long holdStartNanos = 0;
+	private volatile long deliveredNanos = 0;
+	private final AtomicLong cosmosNanos = new AtomicLong(0);
+	private final AtomicLong consumerNanos = new AtomicLong(0);
+
+	public void onRequest(long n, long now) {
+		long current;
+		do {
+			current = outstanding.get();
+		} while(!outstanding.compareAndSet(current, Operators.addCap(current, n)));
+		int p = phase.get();
+		if(p == HOLD || p == IDLE) {
+			long holdStart = holdStartNanos;
+			waitStartNanos = now;
+			if(phase.compareAndSet(p, WAITING) && p == HOLD) {
+				consumerNanos.addAndGet(now - holdStart);
+			}
+		}
+	}
+
+	/*
+	 * How long this delivery was waited for, 0 when the subscriber was busy.
+	 */
+	public long onDelivered(long now) {
+		int p;
+		do {
+			p = phase.get();
+			if(p == DONE) {
+				return 0;
+			}
+		} while(!phase.compareAndSet(p, CONSUMING));
+		long wait = 0;
+		if(p == WAITING) {
+			wait = now - waitStartNanos;
+			cosmosNanos.addAndGet(wait);
+		}
+		deliveredNanos = now;
+		long current;
+		do {
+			current = outstanding.get();
+		} while(current > 0 && current != Long.MAX_VALUE && !outstanding.compareAndSet(current, current - 1));
+		return wait;
+	}
+
+	public void onConsumed(long now) {
+		if(phase.get() != CONSUMING) {
+			return;
+		}
+		consumerNanos.addAndGet(now - deliveredNanos);
+		waitStartNanos = now;
+		if(outstanding.get() > 0) {
+			phase.compareAndSet(CONSUMING, WAITING);
+			return;
+		}
+		holdStartNanos = now;
+		if(phase.compareAndSet(CONSUMING, HOLD) && outstanding.get() > 0) {
+			// a request that still saw CONSUMING left the transition to us
+			phase.compareAndSet(HOLD, WAITING);
+		}
+	}
+
+	public void onTerminated(long now) {
+		if(phase.getAndSet(DONE) == WAITING) {
+			cosmosNanos.addAndGet(now - waitStartNanos);
+		}
+	}
+
+	public long getCosmosNanos() {
+		return cosmosNanos.get();
+	}
+
+	public long getConsumerNanos() {
+		return consumerNanos.get();
+	}
+
+}
@@ -0,0 +1,38 @@
+package com.newrelic.instrumentation.azure.cosmos44;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the threads recording into a per harvest buffer.
+ */
+public class WriterGate {
+
+	private final AtomicLongArray writers;
+	private final int mask;
+
+	public WriterGate(int stripeCount) {
+		int size = Integer.highestOneBit(Math.max(stripeCount, 1) * 2 - 1);
+		writers = new AtomicLongArray(size);
+		mask = size - 1;
+	}
+
+	public void enter() {
+		writers.incrementAndGet((int)(Thread.currentThread().getId() & mask));
+	}
+
+	public void exit() {
+		writers.decrementAndGet((int)(Thread.currentThread().getId() & mask));
+	}
+
+	/*
+	 * Waits until every writer that entered has exited.
+	 */
+	public void await() {
+		for(int i = 0; i < writers.length(); i++) {
+			while(writers.get(i) != 0) {
+				Thread.yield();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.newrelic.instrumentation.azure.cosmos44;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+	@Test
+	public void getAndPut() {
+		BoundedCache<String, String> cache = new BoundedCache<String, String>("Test", 10);
+		assertNull(cache.get("a"));
+		cache.put("a", "1");
+		assertEquals("1", cache.get("a"));
+		assertEquals("2", cache.get("b", key -> "2"));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void ignoresNulls() {
+		BoundedCache<String, String> cache = new BoundedCache<String, String>("Test", 10);
+		cache.put(null, "1");
+		cache.put("a", null);
+		assertEquals(0, cache.size());
+		assertNull(cache.get(null));
+	}
+
+	@Test
+	public void neverExceedsMaxSize() {
+		BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>("Test", 100);
+		for(int i = 0; i < 1000; i++) {
+			cache.put(i, i);
+		}
+		assertEquals(100, cache.size());
+	}
+
+	@Test
+	public void evictsUnreferencedFirst() {
+		BoundedCache<String, String> cache = new BoundedCache<String, String>("Test", 2);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		cache.get("a");
+		cache.put("c", "3");
+		assertEquals(2, cache.size());
+		assertEquals("1", cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals("3", cache.get("c"));
+	}
+
+	@Test
+	public void secondChanceIsUsedUp() {
+		BoundedCache<String, String> cache = new BoundedCache<String, String>("Test", 2);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		cache.get("a");
+		cache.get("b");
+		// both referenced: each loses its bit once, then the oldest goes
+		cache.put("c", "3");
+		assertNull(cache.get("a"));
+		assertEquals("2", cache.get("b"));
+	}
+
+	@Test
+	public void replacingKeepsSize() {
+		BoundedCache<String, String> cache = new BoundedCache<String, String>("Test", 2);
+		cache.put("a", "1");
+		cache.put("a", "2");
+		assertEquals(1, cache.size());
+		assertEquals("2", cache.get("a"));
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.newrelic.instrumentation.azure.cosmos44;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class QueryStatsTableTest {
+
+	private static CosmosOperation query(String collection, String sql) {
+		return new CosmosOperation(collection, CosmosSqlParser.getOperation(sql)).forQuery(sql, CosmosQueryConverter.INSTANCE, QueryFingerprint.normalize(sql));
+	}
+
+	@Test
+	public void aggregatesByFingerprintAndContainer() {
+		QueryStatsTable table = new QueryStatsTable(100, 10);
+		table.record(query("orders", "SELECT * FROM c WHERE c.id = 'a'"), 10, 2.5, 1, false);
+		table.record(query("orders", "SELECT * FROM c WHERE c.id = 'b'"), 30, 3.5, 2, true);
+		table.record(query("users", "SELECT * FROM c WHERE c.id = 'a'"), 5, 1, 1, false);
+		List<Map<String, Object>> events = table.drainEvents();
+		assertEquals(2, events.size());
+		Map<String, Object> orders = events.get(0);
+		assertEquals("SELECT * FROM c WHERE c.id = ?", orders.get("fingerprint"));
+		assertEquals("orders", orders.get("container"));
+		assertEquals("select", orders.get("operation"));
+		assertEquals(1, orders.get("rank"));
+		assertEquals(2L, orders.get("count"));
+		assertEquals(1L, orders.get("errors"));
+		assertEquals(40L, orders.get("totalMillis"));
+		assertEquals(20d, (Double)orders.get("averageMillis"), 0.001);
+		assertEquals(30L, orders.get("maxMillis"));
+		assertEquals(6d, (Double)orders.get("requestCharge"), 0.001);
+		assertEquals(3L, orders.get("pageCount"));
+		assertEquals("users", events.get(1).get("container"));
+		assertEquals(2, events.get(1).get("rank"));
+	}
+
+	@Test
+	public void reportsTopNByTotalTime() {
+		QueryStatsTable table = new QueryStatsTable(100, 2);
+		table.record(query("c", "SELECT * FROM c WHERE c.a = 1"), 10, 0, 1, false);
+		table.record(query("c", "SELECT * FROM c WHERE c.b = 1"), 50, 0, 1, false);
+		table.record(query("c", "SELECT * FROM c WHERE c.c = 1"), 30, 0, 1, false);
+		List<Map<String, Object>> events = table.drainEvents();
+		assertEquals(2, events.size());
+		assertEquals("SELECT * FROM c WHERE c.b = ?", events.get(0).get("fingerprint"));
+		assertEquals("SELECT * FROM c WHERE c.c = ?", events.get(1).get("fingerprint"));
+	}
+
+	@Test
+	public void drainResets() {
+		QueryStatsTable table = new QueryStatsTable(100, 10);
+		table.record(query("c", "SELECT * FROM c"), 10, 0, 1, false);
+		assertEquals(1, table.drainEvents().size());
+		assertTrue(table.drainEvents().isEmpty());
+	}
+
+	@Test
+	public void boundedPerHarvest() {
+		// 16 stripes of one entry each
+		QueryStatsTable table = new QueryStatsTable(16, 1000);
+		for(int i = 0; i < 200; i++) {
+			table.record(query("c", "SELECT * FROM c WHERE c.p" + i + " = 1"), 1, 0, 1, false);
+		}
+		assertTrue(table.drainEvents().size() <= 16);
+	}
+
+	@Test
+	public void ignoresOperationsWithoutFingerprint() {
+		QueryStatsTable table = new QueryStatsTable(100, 10);
+		table.record(new CosmosOperation("c", "readItem"), 10, 0, 0, false);
+		assertTrue(table.drainEvents().isEmpty());
+	}
+
+	@Test
+	public void concurrentDrainLosesNothing() throws InterruptedException {
+		final QueryStatsTable table = new QueryStatsTable(100, 10);
+		final CosmosOperation operation = query("c", "SELECT * FROM c WHERE c.id = 'a'");
+		final CountDownLatch done = new CountDownLatch(4);
+		for(int t = 0; t < 4; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i = 0; i < 100000; i++) {
+						table.record(operation, 1, 0, 1, false);
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		long count = 0;
+		while(done.getCount() > 0) {
+			count += count(table.drainEvents());
+		}
+		count += count(table.drainEvents());
+		assertEquals(400000L, count);
+	}
+
+	private static long count(List<Map<String, Object>> events) {
+		long count = 0;
+		for(Map<String, Object> event : events) {
+			count += (Long)event.get("count");
+		}
+		return count;
+	}
+
+}